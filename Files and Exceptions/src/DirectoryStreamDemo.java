@@ -3,6 +3,7 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 
 /**
  * This class demonstrates how to use a {@link DirectoryStream} to create a
@@ -12,6 +13,7 @@ import java.nio.file.Paths;
  * @see java.nio.file.Paths
  * @see java.nio.file.Files
  * @see java.nio.file.DirectoryStream
+ * @see java.nio.file.attribute.BasicFileAttributes
  */
 public class DirectoryStreamDemo {
 
@@ -45,8 +47,12 @@ public class DirectoryStreamDemo {
 				// Print the name with the proper padding/prefix.
 				System.out.print(prefix + file.getFileName());
 
+				// Read the type and size together, instead of asking the file system
+				// once for whether this is a directory and again for its size.
+				BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+
 				// Check if this is a subdirectory
-				if (Files.isDirectory(file)) {
+				if (attributes.isDirectory()) {
 					// Add a slash so we can tell it is a directory
 					System.out.println("/");
 
@@ -57,7 +63,7 @@ public class DirectoryStreamDemo {
 				}
 				else {
 					// Add the file size next to the name
-					System.out.printf(" (%d bytes)%n", Files.size(file));
+					System.out.printf(" (%d bytes)%n", attributes.size());
 				}
 			}
 		}
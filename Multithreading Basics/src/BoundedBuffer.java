@@ -1,18 +1,31 @@
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * Illustrates how to use a generic type, basic synchronization, and the use of
- * {@link Thread#wait()} and {@link Thread#notifyAll()} to create a thread-safe
- * data structure. Uses the produce-consumer model to demo this data structure
- * with multiple threads.
+ * {@link Condition} objects to create a thread-safe data structure. Uses the
+ * produce-consumer model to demo this data structure with multiple threads.
+ *
+ * An earlier version of this class used {@link Object#wait()} and
+ * {@link Object#notifyAll()} instead. However, that wakes up every waiting
+ * thread after every operation even though only one of those threads can make
+ * progress. Using separate conditions for "not full" and "not empty" lets us
+ * wake up just one thread of the right kind instead.
  *
  * @param <E> type of element to store in buffer
  *
  * @see MirrorDriver
- * @see BoundedBuffer
+ * @see SpscRingBuffer
+ * @see MpmcRingBuffer
  */
-public class BoundedBuffer<E> {
+public class BoundedBuffer<E> implements Buffer<E> {
 
 	/*
 	 * Think of a bounded buffer as a circular buffer. For example:
@@ -51,6 +64,18 @@ public class BoundedBuffer<E> {
 	/** Maximum number of elements buffer may store. */
 	private int max;
 
+	/** Protects the buffer and is used by all waiting threads. */
+	private final ReentrantLock lock;
+
+	/** Signaled when there is space for producers waiting on a full buffer. */
+	private final Condition notFull;
+
+	/** Signaled when there is an element for consumers waiting on an empty buffer. */
+	private final Condition notEmpty;
+
+	/** Whether the buffer was closed, after which no more elements may be added. */
+	private boolean closed;
+
 	/** Used to generate log messages. */
 	private static Logger log = LogManager.getLogger();
 
@@ -67,6 +92,12 @@ public class BoundedBuffer<E> {
 		end = 0;
 		num = 0;
 		max = buffer.length;
+
+		lock = new ReentrantLock();
+		notFull = lock.newCondition();
+		notEmpty = lock.newCondition();
+
+		closed = false;
 	}
 
 	/**
@@ -75,14 +106,74 @@ public class BoundedBuffer<E> {
 	 *
 	 * @param item to store in buffer
 	 * @throws InterruptedException if unable to wait
+	 * @throws IllegalStateException if the buffer is closed
+	 */
+	@Override
+	public void put(E item) throws InterruptedException {
+		lock.lock();
+
+		try {
+			// Wait until we have space for the item.
+			while (num >= max && !closed) {
+				log.debug("put(): waiting until buffer not full.");
+				// await() will release the lock until signaled
+				notFull.await();
+				log.debug("put(): woke up, checking buffer.");
+			}
+
+			add(item);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Places an element into the buffer, or if full, waits until space is
+	 * available or the timeout runs out. Lets producers give up (and shed the
+	 * element) instead of waiting forever on a slow consumer.
+	 *
+	 * @param item to store in buffer
+	 * @param timeout how long to wait for space
+	 * @return true if the element was placed in the buffer, false if the timeout
+	 *         ran out first
+	 * @throws InterruptedException if unable to wait
+	 * @throws IllegalStateException if the buffer is closed
 	 */
-	public synchronized void put(E item) throws InterruptedException {
-		// Wait until we have space for the item.
-		while (num >= max) {
-			log.debug("put(): waiting until buffer not full.");
-			// wait() will release the lock on "this" until notified
-			this.wait();
-			log.debug("put(): woke up, checking buffer.");
+	@Override
+	public boolean offer(E item, Duration timeout) throws InterruptedException {
+		long nanos = timeout.toNanos();
+		lock.lock();
+
+		try {
+			while (num >= max && !closed) {
+				if (nanos <= 0) {
+					log.debug("offer(): timed out waiting until buffer not full.");
+					return false;
+				}
+
+				// returns how much time is left after waking up
+				nanos = notFull.awaitNanos(nanos);
+			}
+
+			add(item);
+			return true;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Places an element at the end of the buffer. Must only be called while
+	 * holding the lock and after waiting for space.
+	 *
+	 * @param item to store in buffer
+	 * @throws IllegalStateException if the buffer is closed
+	 */
+	private void add(E item) {
+		if (closed) {
+			throw new IllegalStateException("Buffer closed.");
 		}
 
 		log.debug("put(): adding {} in buffer.", item);
@@ -94,55 +185,285 @@ public class BoundedBuffer<E> {
 		log.debug("put(): buffer now has {} elements.", num);
 		log.debug("put(): range is now ({}, {}).", beg, end);
 
-		// Wake up any sleeping threads to re-check buffer status
-		this.notifyAll();
+		// Only a consumer can make progress now, so only wake up one consumer
+		notEmpty.signal();
 	}
 
 	/**
-	 * Convenience method for adding multiple items at once. Not the most
-	 * efficient implementation, but demonstrates that synchronized methods can
-	 * call other synchronized methods since the thread already holds the
-	 * appropriate lock.
+	 * Adds multiple items at once. Instead of calling {@link #put(Object)} for
+	 * each item, copies as many items as will fit into the buffer with at most
+	 * two {@link System#arraycopy(Object, int, Object, int, int)} calls (one up
+	 * to the end of the array, and one after wrapping around), and then wakes
+	 * up the consumers once. If not all of the items fit, waits for space and
+	 * repeats with the rest.
 	 *
-	 * @param items
-	 * @throws InterruptedException
+	 * @param items to store in buffer
+	 * @throws InterruptedException if unable to wait
+	 * @throws IllegalStateException if the buffer is closed
 	 */
-	public synchronized void putAll(E[] items) throws InterruptedException {
-		for (E item : items) {
-			this.put(item);
+	@Override
+	public void putAll(E[] items) throws InterruptedException {
+		lock.lock();
+
+		try {
+			int copied = 0;
+
+			while (copied < items.length) {
+				// Wait until we have space for at least one item.
+				while (num >= max && !closed) {
+					log.debug("putAll(): waiting until buffer not full.");
+					notFull.await();
+				}
+
+				if (closed) {
+					throw new IllegalStateException("Buffer closed.");
+				}
+
+				int count = Math.min(items.length - copied, max - num);
+
+				// copy up to the end of the array, then wrap around if necessary
+				int first = Math.min(count, max - end);
+				System.arraycopy(items, copied, buffer, end, first);
+				System.arraycopy(items, copied + first, buffer, 0, count - first);
+
+				copied += count;
+				num += count;
+				end = (end + count) % max;
+
+				log.debug("putAll(): added {} elements, buffer now has {} elements.", count, num);
+
+				// Several consumers may be able to make progress now
+				notEmpty.signalAll();
+			}
+		}
+		finally {
+			lock.unlock();
 		}
 	}
 
 	/**
 	 * Removes and returns an element from the buffer. If the buffer is empty,
-	 * waits until there is an element to retrieve.
+	 * waits until there is an element to retrieve. Once the buffer is closed,
+	 * the remaining elements are still returned, and then {@code null}.
 	 *
-	 * @return element of type {@code E}
+	 * @return element of type {@code E}, or {@code null} if the buffer is closed
+	 *         and empty
 	 * @throws InterruptedException if unable to wait
 	 */
-	@SuppressWarnings("unchecked")
-	public synchronized E get() throws InterruptedException {
-		// Wait until we have an item to get
-		while (num <= 0) {
-			log.debug("get(): waiting until buffer not empty.");
-			this.wait();
-			log.debug("get(): woke up, checking buffer.");
+	@Override
+	public E get() throws InterruptedException {
+		lock.lock();
+
+		try {
+			// Wait until we have an item to get
+			while (num <= 0 && !closed) {
+				log.debug("get(): waiting until buffer not empty.");
+				notEmpty.await();
+				log.debug("get(): woke up, checking buffer.");
+			}
+
+			return num > 0 ? remove() : null;
 		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes and returns an element from the buffer. If the buffer is empty,
+	 * waits until there is an element to retrieve or the timeout runs out.
+	 *
+	 * @param timeout how long to wait for an element
+	 * @return element of type {@code E}, or {@code null} if the timeout ran out
+	 *         first or the buffer is closed and empty
+	 * @throws InterruptedException if unable to wait
+	 */
+	@Override
+	public E poll(Duration timeout) throws InterruptedException {
+		long nanos = timeout.toNanos();
+		lock.lock();
+
+		try {
+			while (num <= 0 && !closed) {
+				if (nanos <= 0) {
+					log.debug("poll(): timed out waiting until buffer not empty.");
+					return null;
+				}
+
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+
+			return num > 0 ? remove() : null;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
 
+	/**
+	 * Removes the element at the beginning of the buffer. Must only be called
+	 * while holding the lock and when the buffer is not empty.
+	 *
+	 * @return element of type {@code E}
+	 */
+	@SuppressWarnings("unchecked")
+	private E remove() {
 		log.debug("get(): getting {} from buffer.", buffer[beg]);
 
 		Object item = buffer[beg]; // Get item from start of the buffer.
+		buffer[beg] = null; // Let the garbage collector have the item later.
 		num--; // Increase the number of items stored.
 		beg = (beg + 1) % max; // Move over 1, loop to start if necessary.
 
 		log.debug("put(): buffer now has {} elements.", num);
 		log.debug("put(): range is now ({}, {}).", beg, end);
 
-		// Wake up any sleeping threads to re-check buffer status
-		this.notifyAll();
+		// Only a producer can make progress now, so only wake up one producer
+		notFull.signal();
 
 		// Return the item, cast as an element of type E
 		// See http://docs.oracle.com/javase/tutorial/java/generics/restrictions.html#createArrays
 		return (E) item;
 	}
+
+	/**
+	 * Removes up to {@code maxElements} elements from the buffer and adds them
+	 * to the given collection, all while holding the lock once. Does not wait if
+	 * the buffer is empty.
+	 *
+	 * @param collection the collection to add the elements to
+	 * @param maxElements the maximum number of elements to remove
+	 * @return the number of elements removed (0 if {@code maxElements} is not
+	 *         positive)
+	 */
+	@SuppressWarnings("unchecked")
+	public int drainTo(Collection<? super E> collection, int maxElements) {
+		if (maxElements <= 0) {
+			return 0;
+		}
+
+		lock.lock();
+
+		try {
+			int count = Math.min(num, maxElements);
+
+			for (int i = 0; i < count; i++) {
+				collection.add((E) buffer[beg]);
+				buffer[beg] = null; // Let the garbage collector have the item later.
+				beg = beg + 1 == max ? 0 : beg + 1;
+			}
+
+			num -= count;
+
+			if (count > 0) {
+				log.debug("drainTo(): removed {} elements, buffer now has {} elements.", count, num);
+
+				// Several producers may be able to make progress now
+				notFull.signalAll();
+			}
+
+			return count;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes and returns up to {@code maxElements} elements from the buffer. If
+	 * the buffer is empty, waits until there is at least one element to
+	 * retrieve. Consumers that can process elements in batches only need to
+	 * lock the buffer once per batch instead of once per element.
+	 *
+	 * @param maxElements the maximum number of elements to remove
+	 * @return list of between 1 and {@code maxElements} elements, or an empty
+	 *         list if the buffer is closed and empty (or {@code maxElements} is
+	 *         not positive)
+	 * @throws InterruptedException if unable to wait
+	 */
+	@Override
+	public List<E> getAll(int maxElements) throws InterruptedException {
+		if (maxElements <= 0) {
+			return new ArrayList<>();
+		}
+
+		lock.lock();
+
+		try {
+			// Wait until we have at least one item to get
+			while (num <= 0 && !closed) {
+				log.debug("getAll(): waiting until buffer not empty.");
+				notEmpty.await();
+			}
+
+			List<E> items = new ArrayList<>(Math.min(num, maxElements));
+			drainTo(items, maxElements);
+			return items;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the buffer, so no more elements may be added. Wakes up every
+	 * waiting thread. Waiting producers will throw an
+	 * {@link IllegalStateException}, and consumers will get the remaining
+	 * elements and then {@code null} (or an empty list). Producers should close
+	 * the buffer when done (even if they fail), so consumers do not wait
+	 * forever.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+
+		try {
+			closed = true;
+			log.debug("close(): buffer closed with {} elements.", num);
+
+			// Everyone waiting needs to find out, not just one thread
+			notFull.signalAll();
+			notEmpty.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of elements currently stored in the buffer.
+	 *
+	 * @return number of elements in the buffer
+	 */
+	public int size() {
+		lock.lock();
+
+		try {
+			return num;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of elements the buffer may store at once.
+	 *
+	 * @return capacity of the buffer
+	 */
+	public int capacity() {
+		return max;
+	}
+
+	@Override
+	public boolean isClosed() {
+		lock.lock();
+
+		try {
+			return closed;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
 }
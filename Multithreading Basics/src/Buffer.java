@@ -0,0 +1,127 @@
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The operations shared by all of the bounded buffers. Producers and consumers
+ * written against this interface can be given whichever buffer fits how many
+ * threads will be using it.
+ *
+ * Instead of sending a special "end" element through the buffer, producers
+ * should close the buffer when they are done (or fail). Consumers then get the
+ * remaining elements, followed by {@code null}. For example:
+ *
+ * <pre>
+ * try (buffer) {
+ *     for (String word : words) {
+ *         buffer.put(word);
+ *     }
+ * }
+ * </pre>
+ *
+ * @param <E> type of element to store in buffer
+ *
+ * @see BoundedBuffer
+ * @see SpscRingBuffer
+ * @see MpmcRingBuffer
+ */
+public interface Buffer<E> extends AutoCloseable {
+
+	/**
+	 * Places an element into the buffer, or if full, waits until space is
+	 * available.
+	 *
+	 * @param item to store in buffer
+	 * @throws InterruptedException if unable to wait
+	 * @throws IllegalStateException if the buffer is closed
+	 */
+	public void put(E item) throws InterruptedException;
+
+	/**
+	 * Places an element into the buffer, or if full, waits until space is
+	 * available or the timeout runs out.
+	 *
+	 * @param item to store in buffer
+	 * @param timeout how long to wait for space
+	 * @return true if the element was placed in the buffer, false if the timeout
+	 *         ran out first
+	 * @throws InterruptedException if unable to wait
+	 * @throws IllegalStateException if the buffer is closed
+	 */
+	public boolean offer(E item, Duration timeout) throws InterruptedException;
+
+	/**
+	 * Convenience method for adding multiple items at once.
+	 *
+	 * @param items to store in buffer
+	 * @throws InterruptedException if unable to wait
+	 * @throws IllegalStateException if the buffer is closed
+	 */
+	public default void putAll(E[] items) throws InterruptedException {
+		for (E item : items) {
+			put(item);
+		}
+	}
+
+	/**
+	 * Removes and returns an element from the buffer. If the buffer is empty,
+	 * waits until there is an element to retrieve.
+	 *
+	 * @return element of type {@code E}, or {@code null} if the buffer is closed
+	 *         and empty
+	 * @throws InterruptedException if unable to wait
+	 */
+	public E get() throws InterruptedException;
+
+	/**
+	 * Removes and returns an element from the buffer. If the buffer is empty,
+	 * waits until there is an element to retrieve or the timeout runs out.
+	 *
+	 * @param timeout how long to wait for an element
+	 * @return element of type {@code E}, or {@code null} if the timeout ran out
+	 *         first or the buffer is closed and empty
+	 * @throws InterruptedException if unable to wait
+	 */
+	public E poll(Duration timeout) throws InterruptedException;
+
+	/**
+	 * Removes and returns up to {@code maxElements} elements from the buffer. If
+	 * the buffer is empty, waits until there is at least one element to
+	 * retrieve. By default, only ever returns one element.
+	 *
+	 * @param maxElements the maximum number of elements to remove
+	 * @return list of between 1 and {@code maxElements} elements, or an empty
+	 *         list if the buffer is closed and empty (or {@code maxElements} is
+	 *         not positive)
+	 * @throws InterruptedException if unable to wait
+	 */
+	public default List<E> getAll(int maxElements) throws InterruptedException {
+		List<E> items = new ArrayList<>();
+
+		if (maxElements <= 0) {
+			return items;
+		}
+
+		E item = get();
+
+		if (item != null) {
+			items.add(item);
+		}
+
+		return items;
+	}
+
+	/**
+	 * Closes the buffer, so no more elements may be added, and wakes up every
+	 * waiting thread.
+	 */
+	@Override
+	public void close();
+
+	/**
+	 * Returns whether the buffer was closed.
+	 *
+	 * @return true if the buffer was closed
+	 */
+	public boolean isClosed();
+}
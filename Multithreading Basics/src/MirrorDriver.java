@@ -1,3 +1,4 @@
+import java.util.List;
 import java.util.Scanner;
 
 import org.apache.logging.log4j.Level;
@@ -6,7 +7,7 @@ import org.apache.logging.log4j.Logger;
 
 /**
  * Illustrates how to use a generic type, basic synchronization, and the use of
- * {@link Thread#wait()} and {@link Thread#notifyAll()} to create a thread-safe
+ * {@link java.util.concurrent.locks.Condition} objects to create a thread-safe
  * data structure. Uses the produce-consumer model to demo this data structure
  * with multiple threads.
  *
@@ -16,7 +17,7 @@ import org.apache.logging.log4j.Logger;
 public class MirrorDriver {
 
 	/** The bounded buffer */
-	private final BoundedBuffer<String> buffer;
+	private final Buffer<String> buffer;
 
 	/** The producer thread placing items in the buffer */
 	private final ProducerThread producer;
@@ -30,12 +31,17 @@ public class MirrorDriver {
 	/** The end-of-transmission text */
 	private static final String EXIT = "exit";
 
+	/** The number of elements the buffer may store at once */
+	private static final int SIZE = 5;
+
 	/**
 	 * Creates an empty bounded buffer, and starts the producer and consumer
 	 * threads.
 	 */
 	public MirrorDriver() {
-		buffer = new BoundedBuffer<String>(5);
+		// only one producer and one consumer, so a SpscRingBuffer would also work,
+		// but it spins instead of sleeping while the consumer waits for input
+		buffer = new BoundedBuffer<String>(SIZE);
 		producer = new ProducerThread();
 		consumer = new ConsumerThread();
 
@@ -46,6 +52,8 @@ public class MirrorDriver {
 	/**
 	 * Produces elements by scanning the console for user input. When found, splits
 	 * the input into individual words and adds each word to the bounded buffer.
+	 * Closes the buffer when done, whether the user typed the end-of-transmission
+	 * text, the input ran out, or something went wrong.
 	 */
 	private class ProducerThread extends Thread {
 
@@ -62,11 +70,12 @@ public class MirrorDriver {
 
 		@Override
 		public void run() {
-			while (true) {
-				String input = scanner.nextLine();
-				String[] words = input.split("\\s");
+			// the consumer stops once the buffer is closed and empty
+			try (buffer) {
+				while (scanner.hasNextLine()) {
+					String input = scanner.nextLine();
+					String[] words = input.split("\\s");
 
-				try {
 					if (words.length > 1) {
 						buffer.putAll(words);
 					}
@@ -78,17 +87,16 @@ public class MirrorDriver {
 						}
 					}
 				}
-				catch (Exception ex) {
-					logger.catching(Level.DEBUG, ex);
-					break;
-				}
+			}
+			catch (Exception ex) {
+				logger.catching(Level.DEBUG, ex);
 			}
 		}
 	}
 
 	/**
 	 * Consumes elements from the bounded buffer, and outputs each element to the
-	 * console in reverse.
+	 * console in reverse, until the buffer is closed and empty.
 	 */
 	private class ConsumerThread extends Thread {
 
@@ -103,17 +111,21 @@ public class MirrorDriver {
 		public void run() {
 			while (true) {
 				try {
-					String output = buffer.get();
+					// take whatever is in the buffer at once instead of one at a time
+					List<String> outputs = buffer.getAll(SIZE);
 
-					// output each element in reverse
-					for (int i = output.length() - 1; i >= 0; i--) {
-						System.out.print(output.charAt(i));
+					// only empty once the producer closed the buffer
+					if (outputs.isEmpty()) {
+						break;
 					}
 
-					System.out.println();
+					for (String output : outputs) {
+						// output each element in reverse
+						for (int i = output.length() - 1; i >= 0; i--) {
+							System.out.print(output.charAt(i));
+						}
 
-					if (output.toLowerCase().equals(EXIT)) {
-						break;
+						System.out.println();
 					}
 				}
 				catch (InterruptedException ex) {
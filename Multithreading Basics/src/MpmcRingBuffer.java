@@ -0,0 +1,125 @@
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free ring buffer that may be used by any number of producer and
+ * consumer threads. Producers race to claim the next position using a
+ * compare-and-set on the ending counter, and consumers do the same with the
+ * beginning counter. The thread that wins owns that position until it is done
+ * with it, and the others move on to the next position.
+ *
+ * Each position also has its own sequence number, which says whether the
+ * position is ready to be written by the producer on the current lap around
+ * the buffer, or ready to be read by the consumer. This way, a consumer never
+ * reads a position before the producer that claimed it has finished writing,
+ * and a producer never overwrites a position before the consumer has read it.
+ *
+ * @param <E> type of element to store in buffer
+ *
+ * @see SpscRingBuffer
+ * @see BoundedBuffer
+ */
+public class MpmcRingBuffer<E> extends RingBuffer<E> {
+
+	/**
+	 * Sequence number of each position. A position with sequence number
+	 * {@code n} is ready to be written when {@code n} equals the ending counter,
+	 * and ready to be read when {@code n} is one past the beginning counter.
+	 */
+	private final AtomicLongArray sequences;
+
+	/** Counter of elements claimed by consumers. */
+	private final Sequence beg;
+
+	/** Counter of elements claimed by producers. */
+	private final Sequence end;
+
+	/**
+	 * Initializes a ring buffer capable of storing at least {@code bufferSize}
+	 * elements at once. The buffer always has room for at least two elements,
+	 * since otherwise "written on this lap" and "ready for the next lap" would
+	 * have the same sequence number.
+	 *
+	 * @param bufferSize size of buffer (should be positive), rounded up to the
+	 *        next power of two
+	 */
+	public MpmcRingBuffer(int bufferSize) {
+		super(Math.max(2, bufferSize));
+
+		sequences = new AtomicLongArray(buffer.length);
+
+		for (int i = 0; i < buffer.length; i++) {
+			sequences.set(i, i);
+		}
+
+		beg = new Sequence();
+		end = new Sequence();
+	}
+
+	@Override
+	public boolean offer(E item) {
+		Objects.requireNonNull(item);
+		checkOpen();
+
+		long index = end.get();
+
+		while (true) {
+			int position = (int) index & mask;
+			long difference = sequences.getAcquire(position) - index;
+
+			if (difference == 0) {
+				// ready for this lap, so try to claim it before another producer does
+				if (end.compareAndSet(index, index + 1)) {
+					buffer[position] = item;
+
+					// ready to be read once the item is there
+					sequences.setRelease(position, index + 1);
+					return true;
+				}
+
+				index = end.get();
+			}
+			else if (difference < 0) {
+				// still holds an item from the last lap, so the buffer is full
+				return false;
+			}
+			else {
+				// another producer already claimed it, so try again further along
+				index = end.get();
+			}
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		long index = beg.get();
+
+		while (true) {
+			int position = (int) index & mask;
+			long difference = sequences.getAcquire(position) - (index + 1);
+
+			if (difference == 0) {
+				// ready to be read, so try to claim it before another consumer does
+				if (beg.compareAndSet(index, index + 1)) {
+					Object item = buffer[position];
+					buffer[position] = null; // Let the garbage collector have the item later.
+
+					// ready to be written on the next lap now that the item is gone
+					sequences.setRelease(position, index + buffer.length);
+					return (E) item;
+				}
+
+				index = beg.get();
+			}
+			else if (difference < 0) {
+				// not written yet on this lap, so the buffer is empty
+				return null;
+			}
+			else {
+				// another consumer already claimed it, so try again further along
+				index = beg.get();
+			}
+		}
+	}
+}
@@ -0,0 +1,624 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Configurator;
+
+/**
+ * Generalizes the producer-consumer model of {@link MirrorDriver} to any number
+ * of stages. Each stage is a function run by its own threads, and the stages
+ * are connected by bounded buffers. Each stage takes a batch of elements from
+ * the buffer before it, applies its function to each one, and adds the results
+ * to the buffer after it. For example:
+ *
+ * <pre>
+ * Pipeline&lt;String, String&gt; pipeline = Pipeline.&lt;String&gt;builder(64)
+ *     .flatMap("split", line -&gt; Arrays.asList(line.split("\\s+")), 1, 16)
+ *     .map("lower", String::toLowerCase, 2, 16)
+ *     .build();
+ * </pre>
+ *
+ * Every stage keeps track of how many elements it processed, how much of its
+ * time was spent working (instead of waiting on the buffers), and how full its
+ * input buffer was. The slowest stage is the one that is always busy, while the
+ * stages before it wait for space and the stages after it wait for elements.
+ * That is the only stage worth giving more threads.
+ *
+ * When the input is closed, each stage finishes the elements left in its input
+ * buffer and then closes its output buffer, so the whole pipeline shuts down in
+ * order. If a stage fails, it stops its other threads and closes its input
+ * buffer so the stages before it stop instead of waiting for space forever.
+ * Its output buffer is still closed, so the stages after it (and whoever takes
+ * from the output) finish up, but with only part of the results. Check
+ * {@link #cause()} or call {@link #join()} to tell the two apart.
+ *
+ * @param <I> type of element put into the pipeline
+ * @param <O> type of element that comes out of the pipeline
+ *
+ * @see BoundedBuffer
+ */
+public class Pipeline<I, O> {
+
+	/** Used to generate log messages. */
+	private static final Logger log = LogManager.getLogger();
+
+	/** The buffer elements are put into. */
+	private final BoundedBuffer<I> input;
+
+	/** The buffer results come out of. */
+	private final BoundedBuffer<O> output;
+
+	/** The stages, in order. */
+	private final List<Stage<?, ?>> stages;
+
+	/**
+	 * Initializes a pipeline. Use {@link #builder(int)} instead.
+	 *
+	 * @param input the buffer elements are put into
+	 * @param output the buffer results come out of
+	 * @param stages the stages, in order
+	 */
+	private Pipeline(BoundedBuffer<I> input, BoundedBuffer<O> output, List<Stage<?, ?>> stages) {
+		this.input = input;
+		this.output = output;
+		this.stages = Collections.unmodifiableList(stages);
+	}
+
+	/**
+	 * Starts building a pipeline with no stages yet.
+	 *
+	 * @param <I> type of element put into the pipeline
+	 * @param capacity size of each buffer between the stages
+	 * @return builder to add stages to
+	 */
+	public static <I> Builder<I, I> builder(int capacity) {
+		BoundedBuffer<I> input = new BoundedBuffer<>(capacity);
+		return new Builder<>(capacity, input, input, new ArrayList<>());
+	}
+
+	/**
+	 * Returns the buffer elements are put into. Close it once there is nothing
+	 * more to put.
+	 *
+	 * @return the input buffer
+	 */
+	public Buffer<I> input() {
+		return input;
+	}
+
+	/**
+	 * Returns the buffer results come out of. It is closed once every stage is
+	 * finished, whether or not a stage failed.
+	 *
+	 * @return the output buffer
+	 * @see #cause()
+	 */
+	public Buffer<O> output() {
+		return output;
+	}
+
+	/**
+	 * Waits until every stage is finished.
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws ExecutionException if a stage failed, so the output was incomplete
+	 * @see #cause()
+	 */
+	public void join() throws InterruptedException, ExecutionException {
+		for (Stage<?, ?> stage : stages) {
+			stage.join();
+		}
+
+		Stage<?, ?> failed = failed();
+
+		if (failed != null) {
+			throw new ExecutionException("Stage " + failed.name() + " failed.", failed.cause());
+		}
+	}
+
+	/**
+	 * Returns why the pipeline failed, if it did.
+	 *
+	 * @return the exception that stopped the pipeline, or {@code null} if no
+	 *         stage has failed
+	 * @see Stage#cause()
+	 */
+	public Throwable cause() {
+		Stage<?, ?> failed = failed();
+		return failed == null ? null : failed.cause();
+	}
+
+	/**
+	 * Returns the stage that caused the pipeline to fail. Stages before a failed
+	 * stage fail too once their output is closed, so the last failed stage is
+	 * the one where the failure started.
+	 *
+	 * @return the failed stage, or {@code null} if no stage has failed
+	 */
+	private Stage<?, ?> failed() {
+		Stage<?, ?> failed = null;
+
+		for (Stage<?, ?> stage : stages) {
+			if (stage.cause() != null) {
+				failed = stage;
+			}
+		}
+
+		return failed;
+	}
+
+	/**
+	 * Returns the stages, in order.
+	 *
+	 * @return unmodifiable list of stages
+	 */
+	public List<Stage<?, ?>> stages() {
+		return stages;
+	}
+
+	/**
+	 * Returns the stage that spent the largest share of its threads' time
+	 * working, which is the stage holding up the rest of the pipeline.
+	 *
+	 * @return the slowest stage, or {@code null} if there are no stages
+	 */
+	public Stage<?, ?> bottleneck() {
+		Stage<?, ?> slowest = null;
+
+		for (Stage<?, ?> stage : stages) {
+			if (slowest == null || stage.utilization() > slowest.utilization()) {
+				slowest = stage;
+			}
+		}
+
+		return slowest;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+
+		for (Stage<?, ?> stage : stages) {
+			builder.append(stage).append(System.lineSeparator());
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Adds stages to a pipeline, connecting each new stage to the output of the
+	 * last one.
+	 *
+	 * @param <I> type of element put into the pipeline
+	 * @param <T> type of element that comes out of the last stage so far
+	 */
+	public static class Builder<I, T> {
+		/** Size of each buffer between the stages. */
+		private final int capacity;
+
+		/** The buffer elements are put into. */
+		private final BoundedBuffer<I> input;
+
+		/** The output buffer of the last stage so far. */
+		private final BoundedBuffer<T> last;
+
+		/** The stages so far, in order. */
+		private final List<Stage<?, ?>> stages;
+
+		/**
+		 * Initializes a builder.
+		 *
+		 * @param capacity size of each buffer between the stages
+		 * @param input the buffer elements are put into
+		 * @param last the output buffer of the last stage so far
+		 * @param stages the stages so far, in order
+		 */
+		private Builder(int capacity, BoundedBuffer<I> input, BoundedBuffer<T> last,
+				List<Stage<?, ?>> stages) {
+			this.capacity = capacity;
+			this.input = input;
+			this.last = last;
+			this.stages = stages;
+		}
+
+		/**
+		 * Adds a stage that turns each element into one result. Elements that
+		 * turn into {@code null} are dropped, so this may also be used to filter.
+		 *
+		 * @param <R> type of result
+		 * @param name the name of the stage (used for its threads and statistics)
+		 * @param function turns each element into one result (or {@code null})
+		 * @param parallelism number of threads running the stage
+		 * @param batchSize maximum number of elements taken from the buffer at once
+		 * @return builder with the stage added
+		 */
+		public <R> Builder<I, R> map(String name, Function<? super T, ? extends R> function,
+				int parallelism, int batchSize) {
+			return flatMap(name, item -> {
+				R result = function.apply(item);
+				return result == null ? Collections.emptyList() : Collections.singletonList(result);
+			}, parallelism, batchSize);
+		}
+
+		/**
+		 * Adds a stage that turns each element into any number of results.
+		 *
+		 * @param <R> type of result
+		 * @param name the name of the stage (used for its threads and statistics)
+		 * @param function turns each element into a collection of results
+		 * @param parallelism number of threads running the stage
+		 * @param batchSize maximum number of elements taken from the buffer at once
+		 * @return builder with the stage added
+		 */
+		public <R> Builder<I, R> flatMap(String name,
+				Function<? super T, ? extends Collection<? extends R>> function, int parallelism,
+				int batchSize) {
+			BoundedBuffer<R> next = new BoundedBuffer<>(capacity);
+			stages.add(new Stage<T, R>(name, last, next, function, parallelism, batchSize));
+			return new Builder<>(capacity, input, next, stages);
+		}
+
+		/**
+		 * Starts every stage and returns the pipeline.
+		 *
+		 * @return the running pipeline
+		 */
+		public Pipeline<I, T> build() {
+			for (Stage<?, ?> stage : stages) {
+				stage.start();
+			}
+
+			return new Pipeline<>(input, last, stages);
+		}
+	}
+
+	/**
+	 * A single stage of the pipeline, along with its statistics.
+	 *
+	 * @param <In> type of element the stage takes
+	 * @param <Out> type of result the stage produces
+	 */
+	public static class Stage<In, Out> {
+		/** The name of the stage. */
+		private final String name;
+
+		/** The buffer elements are taken from. */
+		private final BoundedBuffer<In> input;
+
+		/** The buffer results are added to. */
+		private final BoundedBuffer<Out> output;
+
+		/** Turns each element into a collection of results. */
+		private final Function<? super In, ? extends Collection<? extends Out>> function;
+
+		/** Maximum number of elements taken from the buffer at once. */
+		private final int batchSize;
+
+		/** The threads running the stage. */
+		private final Thread[] workers;
+
+		/** Number of threads still running. */
+		private final AtomicInteger running;
+
+		/** The first exception thrown by any of the threads, if any. */
+		private final AtomicReference<Throwable> cause;
+
+		/** Number of elements processed. */
+		private final LongAdder processed;
+
+		/** Time spent applying the function (instead of waiting), in nanoseconds. */
+		private final LongAdder busy;
+
+		/** Sum of how many elements were in the input buffer before each batch. */
+		private final LongAdder occupied;
+
+		/** Number of times the input buffer was sampled. */
+		private final LongAdder batches;
+
+		/** When the stage started, from {@link System#nanoTime()}. */
+		private volatile long started;
+
+		/** When the stage finished, or 0 if still running. */
+		private volatile long finished;
+
+		/**
+		 * Initializes a stage.
+		 *
+		 * @param name the name of the stage
+		 * @param input the buffer elements are taken from
+		 * @param output the buffer results are added to
+		 * @param function turns each element into a collection of results
+		 * @param parallelism number of threads running the stage
+		 * @param batchSize maximum number of elements taken from the buffer at once
+		 */
+		private Stage(String name, BoundedBuffer<In> input, BoundedBuffer<Out> output,
+				Function<? super In, ? extends Collection<? extends Out>> function, int parallelism,
+				int batchSize) {
+			this.name = name;
+			this.input = input;
+			this.output = output;
+			this.function = function;
+			this.batchSize = batchSize;
+			this.workers = new Thread[parallelism];
+			this.running = new AtomicInteger(parallelism);
+			this.cause = new AtomicReference<>();
+			this.processed = new LongAdder();
+			this.busy = new LongAdder();
+			this.occupied = new LongAdder();
+			this.batches = new LongAdder();
+			this.started = 0;
+			this.finished = 0;
+		}
+
+		/**
+		 * Starts the threads running the stage.
+		 */
+		private void start() {
+			started = System.nanoTime();
+
+			for (int i = 0; i < workers.length; i++) {
+				workers[i] = new Thread(this::work, name + "-" + i);
+				workers[i].start();
+			}
+		}
+
+		/**
+		 * Takes batches from the input buffer and adds the results to the output
+		 * buffer until the input buffer is closed and empty, or until the stage
+		 * fails.
+		 */
+		@SuppressWarnings("unchecked")
+		private void work() {
+			Throwable thrown = null;
+
+			try {
+				// another thread may have failed while this one was busy
+				while (cause.get() == null) {
+					// sampled before taking the batch, so an empty buffer counts too
+					occupied.add(input.size());
+					batches.increment();
+
+					List<In> batch = input.getAll(batchSize);
+
+					// only empty once the input is closed and empty
+					if (batch.isEmpty()) {
+						break;
+					}
+
+					long start = System.nanoTime();
+					List<Out> results = new ArrayList<>();
+
+					for (In item : batch) {
+						if (cause.get() != null) {
+							return;
+						}
+
+						results.addAll(function.apply(item));
+					}
+
+					busy.add(System.nanoTime() - start);
+					processed.add(batch.size());
+
+					if (!results.isEmpty()) {
+						// erased to an Object[] anyway, which is what the buffer stores
+						output.putAll((Out[]) results.toArray());
+					}
+				}
+			}
+			catch (InterruptedException ex) {
+				thrown = ex;
+				log.catching(Level.DEBUG, ex);
+			}
+			catch (RuntimeException | Error ex) {
+				thrown = ex;
+				log.warn("Stage {} failed: {}", name, ex.toString());
+				log.catching(Level.DEBUG, ex);
+			}
+			finally {
+				if (thrown != null) {
+					fail(thrown);
+				}
+
+				if (running.decrementAndGet() == 0) {
+					finished = System.nanoTime();
+					output.close();
+					log.debug("Stage {} finished.", name);
+				}
+			}
+		}
+
+		/**
+		 * Records why the stage failed, and stops the rest of the stage and the
+		 * stages before it. Only the first failure is kept, since the others are
+		 * just the other threads being stopped.
+		 *
+		 * @param thrown the exception that stopped a thread
+		 */
+		private void fail(Throwable thrown) {
+			if (cause.compareAndSet(null, thrown)) {
+				// stop the stages before this one instead of letting them wait for space
+				input.close();
+
+				// stop the other threads instead of letting them finish the input
+				for (Thread worker : workers) {
+					// may not have been started yet, but will stop right away once it is
+					if (worker != null && worker != Thread.currentThread()) {
+						worker.interrupt();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Waits until every thread running the stage is finished.
+		 *
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		private void join() throws InterruptedException {
+			for (Thread worker : workers) {
+				worker.join();
+			}
+		}
+
+		/**
+		 * Returns the name of the stage.
+		 *
+		 * @return the name of the stage
+		 */
+		public String name() {
+			return name;
+		}
+
+		/**
+		 * Returns why the stage failed, if it did.
+		 *
+		 * @return the first exception thrown by the stage, or {@code null} if it
+		 *         has not failed
+		 */
+		public Throwable cause() {
+			return cause.get();
+		}
+
+		/**
+		 * Returns the number of threads running the stage.
+		 *
+		 * @return number of threads
+		 */
+		public int parallelism() {
+			return workers.length;
+		}
+
+		/**
+		 * Returns the number of elements processed thus far.
+		 *
+		 * @return number of elements processed
+		 */
+		public long processed() {
+			return processed.sum();
+		}
+
+		/**
+		 * Returns the number of elements processed per second since the stage
+		 * started (until it finished).
+		 *
+		 * @return elements processed per second
+		 */
+		public double throughput() {
+			return processed.sum() / elapsed();
+		}
+
+		/**
+		 * Returns the share of the threads' time spent applying the function
+		 * instead of waiting on the buffers. Close to 1 means the stage is the
+		 * bottleneck, and more threads might help.
+		 *
+		 * @return share of time spent working, between 0 and 1
+		 */
+		public double utilization() {
+			return busy.sum() / 1e9 / elapsed() / workers.length;
+		}
+
+		/**
+		 * Returns how full the input buffer was, on average, just before each batch
+		 * was taken. Close to 1 means elements arrive faster than the stage can keep
+		 * up with.
+		 *
+		 * @return average share of the input buffer in use, between 0 and 1
+		 */
+		public double occupancy() {
+			long count = batches.sum();
+			return count == 0 ? 0 : (double) occupied.sum() / count / input.capacity();
+		}
+
+		/**
+		 * Returns the number of seconds between when the stage started and when it
+		 * finished (or now, if still running).
+		 *
+		 * @return elapsed seconds
+		 */
+		private double elapsed() {
+			long end = finished == 0 ? System.nanoTime() : finished;
+			return Math.max(end - started, 1) / 1e9;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%10s x%d: %,10d items %,12.0f items/s %5.1f%% busy %5.1f%% input full",
+					name, workers.length, processed(), throughput(), utilization() * 100,
+					occupancy() * 100);
+		}
+	}
+
+	/**
+	 * Counts the words in the source code of this class (repeated many times)
+	 * using a pipeline, and outputs the statistics of each stage.
+	 *
+	 * @param args unused
+	 * @throws IOException if unable to read the source code
+	 * @throws InterruptedException if interrupted while waiting for the pipeline
+	 * @throws ExecutionException if a stage of the pipeline failed
+	 */
+	public static void main(String[] args)
+			throws IOException, InterruptedException, ExecutionException {
+		/*
+		 * Make sure you DISABLE LOGGING before running this demo! Otherwise, the
+		 * statistics measure the buffers logging instead of the stages working.
+		 */
+		Configurator.setAllLevels(LogManager.getRootLogger().getName(), Level.OFF);
+
+		List<String> lines = Files.readAllLines(Path.of("src", "Pipeline.java"));
+
+		Pipeline<String, String> pipeline = Pipeline.<String>builder(64)
+				.flatMap("split", (String line) -> Arrays.asList(line.split("\\s+")), 1, 16)
+				.map("clean", word -> word.replaceAll("[^A-Za-z]", "").toLowerCase(), 2, 16)
+				.map("filter", word -> word.length() > 3 ? word : null, 1, 16)
+				.build();
+
+		Thread producer = new Thread(() -> {
+			try (Buffer<String> input = pipeline.input()) {
+				for (int i = 0; i < 200; i++) {
+					for (String line : lines) {
+						input.put(line);
+					}
+				}
+			}
+			catch (InterruptedException ex) {
+				log.catching(Level.DEBUG, ex);
+			}
+		});
+
+		producer.start();
+
+		Map<String, Integer> counts = new TreeMap<>();
+		List<String> words;
+
+		while (!(words = pipeline.output().getAll(64)).isEmpty()) {
+			for (String word : words) {
+				counts.merge(word, 1, Integer::sum);
+			}
+		}
+
+		pipeline.join();
+		producer.join();
+
+		System.out.println(counts.size() + " distinct words, most common: "
+				+ counts.entrySet().stream().max(Map.Entry.comparingByValue()).get());
+		System.out.print(pipeline);
+		System.out.println("Bottleneck: " + pipeline.bottleneck().name());
+	}
+}
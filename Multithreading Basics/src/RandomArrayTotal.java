@@ -1,13 +1,25 @@
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Demonstrates basic multithreading, and illustrates how to break up a problem
  * into subproblems. Also used to motivate the inefficiency of constantly
  * creating new threads instead of reusing them.
+ *
+ * The fork/join version reuses the threads of a {@link ForkJoinPool} instead,
+ * and only splits the array while the pieces are large enough to be worth it.
+ * Small arrays are totaled directly by the calling thread.
  */
 public class RandomArrayTotal {
 
+	/**
+	 * Arrays (or pieces of arrays) at most this long are totaled directly instead
+	 * of being split up any further.
+	 */
+	public static final int CUTOFF = 1 << 15;
+
 	/**
 	 * Fills an integer array with random integers between 0 and {@code max}.
 	 *
@@ -42,6 +54,51 @@ public class RandomArrayTotal {
 		return total;
 	}
 
+	/**
+	 * Calculates a subtotal in an array, just like
+	 * {@link #subtotal(int[], int, int)}, except four values are added at a time
+	 * into four separate totals. Each addition no longer has to wait for the one
+	 * before it to finish, so the processor can work on several at once.
+	 *
+	 * Whether this helps depends on the JIT compiler. Recent versions of HotSpot
+	 * already unroll the simple loop in {@link #subtotal(int[], int, int)} and
+	 * use vector instructions for it, in which case doing it by hand can even be
+	 * slower. Always measure!
+	 *
+	 * Note: The Vector API ({@code jdk.incubator.vector}) can do this explicitly
+	 * with {@code IntVector}, but it is still an incubator module that needs
+	 * {@code --add-modules} at compile time and run time, so it is not used here.
+	 *
+	 * @param numbers array of numbers to subtotal
+	 * @param start   index of array to start subtotal
+	 * @param chunk   number of values to subtotal
+	 * @return subtotal of numbers from index {@code start} (inclusive) to
+	 *         {@code start + chunk} (exclusive)
+	 */
+	public static long subtotalUnrolled(int[] numbers, int start, int chunk) {
+		long total0 = 0;
+		long total1 = 0;
+		long total2 = 0;
+		long total3 = 0;
+
+		int end = start + chunk;
+		int i = start;
+
+		for (; i + 3 < end; i += 4) {
+			total0 += numbers[i];
+			total1 += numbers[i + 1];
+			total2 += numbers[i + 2];
+			total3 += numbers[i + 3];
+		}
+
+		// account for any remainder
+		for (; i < end; i++) {
+			total0 += numbers[i];
+		}
+
+		return total0 + total1 + total2 + total3;
+	}
+
 	/**
 	 * Calculates total of values in an array.
 	 *
@@ -98,6 +155,72 @@ public class RandomArrayTotal {
 		return total;
 	}
 
+	/**
+	 * Calculates the total of an array using the common {@link ForkJoinPool},
+	 * whose threads are created once and then reused by every call. Arrays no
+	 * longer than {@link #CUTOFF} are totaled directly without any tasks.
+	 *
+	 * @param numbers array of numbers to total
+	 * @return total of numbers in array
+	 */
+	public static long forkJoinTotal(int[] numbers) {
+		if (numbers.length <= CUTOFF) {
+			return subtotal(numbers, 0, numbers.length);
+		}
+
+		return ForkJoinPool.commonPool().invoke(new SubtotalTask(numbers, 0, numbers.length));
+	}
+
+	/**
+	 * Splits its piece of the array in half until the pieces are no longer than
+	 * {@link #CUTOFF}, and then totals each piece with
+	 * {@link RandomArrayTotal#subtotal(int[], int, int)}.
+	 */
+	private static class SubtotalTask extends RecursiveTask<Long> {
+
+		/** Version ID for serialization. */
+		private static final long serialVersionUID = 1L;
+
+		/** The array of numbers to subtotal */
+		private final int[] numbers;
+
+		/** The starting index in the numbers array */
+		private final int start;
+
+		/** The number of values to subtotal */
+		private final int chunk;
+
+		/**
+		 * Initializes this task.
+		 *
+		 * @param numbers the array of numbers
+		 * @param start   the starting index
+		 * @param chunk   the number of values to subtotal
+		 */
+		public SubtotalTask(int[] numbers, int start, int chunk) {
+			this.numbers = numbers;
+			this.start = start;
+			this.chunk = chunk;
+		}
+
+		@Override
+		protected Long compute() {
+			if (chunk <= CUTOFF) {
+				return subtotal(numbers, start, chunk);
+			}
+
+			int half = chunk / 2;
+
+			SubtotalTask left = new SubtotalTask(numbers, start, half);
+			SubtotalTask right = new SubtotalTask(numbers, start + half, chunk - half);
+
+			// let another thread steal the left half while we work on the right half
+			left.fork();
+			long total = right.compute();
+			return total + left.join();
+		}
+	}
+
 	/**
 	 * Uses the {@link RandomArrayTotal#subtotal(int[], int, int)} method to
 	 * generate a subtotal of an array.
@@ -138,9 +261,13 @@ public class RandomArrayTotal {
 	}
 
 	/**
-	 * Compares our single threaded and multi threaded approach. Notice that we do
-	 * not see a speedup when we increase the number of threads for small sizes. Do
-	 * you understand why?
+	 * Compares our single threaded and multi threaded approaches. Notice that we
+	 * do not see a speedup when we increase the number of threads for small
+	 * sizes. Do you understand why? Try to find the size where each approach
+	 * starts to pay off.
+	 *
+	 * Note: An array of 10^9 integers needs 4 GB of memory, so run with a large
+	 * enough heap (such as {@code -Xmx6g}) to include the largest sizes.
 	 *
 	 * @param args
 	 * @throws InterruptedException
@@ -152,44 +279,80 @@ public class RandomArrayTotal {
 		System.out.println(Arrays.toString(numbers));
 		System.out.println(total(numbers));
 		System.out.println(total(numbers, 5));
+		System.out.println(forkJoinTotal(numbers));
+
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		for (int size = 1_000; size > 0 && size <= 1_000_000_000; size *= 10) {
+			// leave some room for everything else on the heap
+			if ((long) size * Integer.BYTES > Runtime.getRuntime().maxMemory() * 3 / 4) {
+				System.out.printf("%,d numbers skipped, not enough memory%n", size);
+				continue;
+			}
 
-		benchmark(100, 1);
-		benchmark(100, 5);
+			numbers = new int[size];
+			fillRandom(numbers, 100);
+
+			System.out.printf("%,d numbers:%n", size);
+			benchmark("serial", numbers, RandomArrayTotal::total);
+			benchmark("unrolled", numbers, n -> subtotalUnrolled(n, 0, n.length));
+			benchmark(threads + " threads", numbers, n -> total(n, threads));
+			benchmark("fork/join", numbers, RandomArrayTotal::forkJoinTotal);
+		}
+	}
+
+	/**
+	 * A way of calculating the total of an array.
+	 */
+	@FunctionalInterface
+	private interface Totaler {
+		/**
+		 * Calculates total of values in an array.
+		 *
+		 * @param numbers array of numbers to total
+		 * @return total of numbers in array
+		 * @throws InterruptedException if interrupted while waiting for threads
+		 */
+		public long total(int[] numbers) throws InterruptedException;
 	}
 
 	/**
 	 * Rough benchmarking estimate. Use a benchmark package for better results.
+	 * Larger arrays get fewer runs, so every size takes a similar amount of
+	 * time.
 	 *
-	 * @param size
-	 * @param threads
+	 * @param name the name to use in the output
+	 * @param numbers array of numbers to total
+	 * @param totaler the approach to benchmark
 	 * @throws InterruptedException
 	 */
-	private static void benchmark(int size, int threads) throws InterruptedException {
-		int warmup = 10;
-		int runs = 30;
+	private static void benchmark(String name, int[] numbers, Totaler totaler)
+			throws InterruptedException {
+		long expected = total(numbers);
+
+		int runs = (int) Math.max(3, Math.min(1000, 100_000_000L / numbers.length));
+		int warmup = Math.max(1, runs / 3);
 
 		long start = 0;
 		long elapsed = 0;
 		double average = 0;
 
-		int[] numbers = new int[size];
-		fillRandom(numbers, 100);
-
 		for (int i = 0; i < warmup; i++) {
-			total(numbers, threads);
+			if (totaler.total(numbers) != expected) {
+				System.err.printf("Unexpected total from %s!%n", name);
+			}
 		}
 
 		for (int i = 0; i < runs; i++) {
 			start = System.nanoTime();
-			total(numbers, threads);
+			totaler.total(numbers);
 			elapsed = System.nanoTime() - start;
 			average += elapsed;
 		}
 
 		average /= runs;
-		average /= 1000000000;
+		average /= 1000000;
 
-		System.out.printf("%.05f seconds average for %d numbers and %d threads%n", average, size,
-				threads);
+		System.out.printf("%15s: %12.05f ms average%n", name, average);
 	}
 }
@@ -0,0 +1,263 @@
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The parts shared by the lock-free ring buffers. Unlike {@link BoundedBuffer},
+ * these never lock. Instead, the beginning and ending indices are counters that
+ * only ever increase, and the position in the array is found by masking off the
+ * upper bits of the counter. This requires the capacity to be a power of two,
+ * but avoids both the {@code %} operator and having to wrap the indices around
+ * by hand.
+ *
+ * Without a lock, there is also no condition to wait on. Threads that find the
+ * buffer full (or empty) spin for a little while, then yield, and finally park
+ * for a short time before trying again. This is great when the other side is
+ * about to make progress, but wastes time when it is not (for example, when
+ * waiting for user input).
+ *
+ * @param <E> type of element to store in buffer
+ *
+ * @see SpscRingBuffer
+ * @see MpmcRingBuffer
+ */
+public abstract class RingBuffer<E> implements Buffer<E> {
+
+	/** Number of times to spin before yielding. */
+	private static final int SPINS = 100;
+
+	/** Number of times to yield before parking. */
+	private static final int YIELDS = 10;
+
+	/** How long to park before trying again, in nanoseconds. */
+	private static final long PARK = TimeUnit.MICROSECONDS.toNanos(50);
+
+	/**
+	 * A circular buffer of elements. We use an {@link Object} array since we
+	 * cannot create arrays of generic types.
+	 */
+	protected final Object[] buffer;
+
+	/** Masks a counter into an index of the buffer (its length minus one). */
+	protected final int mask;
+
+	/** Whether the buffer was closed, after which no more elements may be added. */
+	private volatile boolean closed;
+
+	/**
+	 * Initializes a ring buffer capable of storing at least {@code bufferSize}
+	 * elements at once.
+	 *
+	 * @param bufferSize size of buffer (should be positive), rounded up to the
+	 *        next power of two
+	 */
+	protected RingBuffer(int bufferSize) {
+		int size = bufferSize <= 1 ? 1 : Integer.highestOneBit(bufferSize - 1) << 1;
+
+		buffer = new Object[size];
+		mask = size - 1;
+		closed = false;
+	}
+
+	/**
+	 * Places an element into the buffer if there is space, without waiting.
+	 *
+	 * @param item to store in buffer (may not be {@code null})
+	 * @return true if the element was placed in the buffer
+	 * @throws IllegalStateException if the buffer is closed
+	 */
+	public abstract boolean offer(E item);
+
+	/**
+	 * Removes and returns an element from the buffer if there is one, without
+	 * waiting.
+	 *
+	 * @return element of type {@code E}, or {@code null} if the buffer is empty
+	 */
+	public abstract E poll();
+
+	@Override
+	public void put(E item) throws InterruptedException {
+		for (int attempt = 0; !offer(item); attempt++) {
+			backoff(attempt);
+		}
+	}
+
+	@Override
+	public boolean offer(E item, Duration timeout) throws InterruptedException {
+		long deadline = System.nanoTime() + timeout.toNanos();
+
+		for (int attempt = 0; !offer(item); attempt++) {
+			if (System.nanoTime() - deadline >= 0) {
+				return false;
+			}
+
+			backoff(attempt);
+		}
+
+		return true;
+	}
+
+	@Override
+	public E get() throws InterruptedException {
+		E item;
+
+		for (int attempt = 0; (item = poll()) == null; attempt++) {
+			if (closed) {
+				// anything added before it was closed is visible now
+				return poll();
+			}
+
+			backoff(attempt);
+		}
+
+		return item;
+	}
+
+	@Override
+	public E poll(Duration timeout) throws InterruptedException {
+		long deadline = System.nanoTime() + timeout.toNanos();
+		E item;
+
+		for (int attempt = 0; (item = poll()) == null; attempt++) {
+			if (closed) {
+				return poll();
+			}
+
+			if (System.nanoTime() - deadline >= 0) {
+				return null;
+			}
+
+			backoff(attempt);
+		}
+
+		return item;
+	}
+
+	/**
+	 * Removes up to {@code maxElements} elements from the buffer and adds them
+	 * to the given collection. Does not wait if the buffer is empty.
+	 *
+	 * @param collection the collection to add the elements to
+	 * @param maxElements the maximum number of elements to remove
+	 * @return the number of elements removed (0 if {@code maxElements} is not
+	 *         positive)
+	 */
+	public int drainTo(Collection<? super E> collection, int maxElements) {
+		int count = 0;
+		E item;
+
+		while (count < maxElements && (item = poll()) != null) {
+			collection.add(item);
+			count++;
+		}
+
+		return count;
+	}
+
+	@Override
+	public List<E> getAll(int maxElements) throws InterruptedException {
+		List<E> items = new ArrayList<>();
+
+		if (maxElements <= 0) {
+			return items;
+		}
+
+		E item = get();
+
+		if (item != null) {
+			items.add(item);
+			drainTo(items, maxElements - 1);
+		}
+
+		return items;
+	}
+
+	/**
+	 * Closes the buffer, so no more elements may be added. Waiting producers
+	 * will throw an {@link IllegalStateException} the next time they try, and
+	 * consumers will get the remaining elements and then {@code null}.
+	 *
+	 * Note: Without a lock, a producer that checked just before the buffer was
+	 * closed may still add its element afterwards. Consumers that already
+	 * returned {@code null} will not see it.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Makes sure the buffer is not closed before adding an element.
+	 *
+	 * @throws IllegalStateException if the buffer is closed
+	 */
+	protected void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("Buffer closed.");
+		}
+	}
+
+	/**
+	 * Returns the number of elements the buffer may store at once.
+	 *
+	 * @return capacity of the buffer
+	 */
+	public int capacity() {
+		return buffer.length;
+	}
+
+	/**
+	 * Waits a little before trying an operation again, waiting longer the more
+	 * attempts have failed.
+	 *
+	 * @param attempt number of attempts that failed thus far
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private static void backoff(int attempt) throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+
+		if (attempt < SPINS) {
+			Thread.onSpinWait();
+		}
+		else if (attempt < SPINS + YIELDS) {
+			Thread.yield();
+		}
+		else {
+			LockSupport.parkNanos(PARK);
+		}
+	}
+
+	/**
+	 * A counter padded so it does not share a cache line with other counters.
+	 * Otherwise, every time a producer updated its counter, the cache line
+	 * holding the consumer counter would be invalidated too (and vice versa),
+	 * even though neither counter was shared. This is known as false sharing.
+	 */
+	@SuppressWarnings("unused")
+	protected static class Sequence extends AtomicLong {
+		/** Version ID for serialization. */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The last value seen of some other counter. Only used when a single
+		 * thread updates this counter, so it can avoid reading the other counter
+		 * (and its cache line) every time.
+		 */
+		protected long cached;
+
+		/** Padding to fill the rest of the cache line. */
+		private long p1, p2, p3, p4, p5, p6, p7;
+	}
+}
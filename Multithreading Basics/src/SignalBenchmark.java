@@ -0,0 +1,263 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+
+/**
+ * Compares the throughput and number of context switches of the original
+ * {@link Object#notifyAll()} version of the bounded buffer against the
+ * {@link java.util.concurrent.locks.Condition} version in {@link BoundedBuffer}
+ * and the lock-free {@link MpmcRingBuffer} and {@link SpscRingBuffer}.
+ * Half of the threads are producers and half are consumers. Note: Benchmarking
+ * is difficult in Java. For more sophisticated benchmarking, look into
+ * benchmarking extensions or third-party libraries.
+ *
+ * Context switches are read from {@code /proc/thread-self/status}, so they are
+ * only available on Linux. Elsewhere they will show up as 0.
+ *
+ * @see BoundedBuffer
+ * @see RingBuffer
+ */
+public class SignalBenchmark {
+
+	/** Number of items passed through the buffer per run. */
+	public static final int ITEMS = 1_000_000;
+
+	/** Number of elements the buffer may store at once. */
+	public static final int SIZE = 16;
+
+	/** Number of untimed warmup runs. */
+	public static final int WARMUP = 3;
+
+	/** Number of timed runs. */
+	public static final int RUNS = 5;
+
+	/**
+	 * The only operations the benchmark needs from a buffer. The original
+	 * version below predates timeouts and closing, so it does not implement all
+	 * of {@link Buffer}.
+	 */
+	private static interface Channel {
+		/**
+		 * Places an item into the buffer, waiting for space if necessary.
+		 *
+		 * @param item to store in buffer
+		 * @throws InterruptedException if unable to wait
+		 */
+		public void put(Integer item) throws InterruptedException;
+
+		/**
+		 * Removes an item from the buffer, waiting for one if necessary.
+		 *
+		 * @return item removed from the buffer
+		 * @throws InterruptedException if unable to wait
+		 */
+		public Integer get() throws InterruptedException;
+
+		/**
+		 * Uses one of the {@link Buffer} implementations as a channel.
+		 *
+		 * @param buffer the buffer to use
+		 * @return channel that puts into and gets from the buffer
+		 */
+		public static Channel of(Buffer<Integer> buffer) {
+			return new Channel() {
+				@Override
+				public void put(Integer item) throws InterruptedException {
+					buffer.put(item);
+				}
+
+				@Override
+				public Integer get() throws InterruptedException {
+					return buffer.get();
+				}
+			};
+		}
+	}
+
+	/**
+	 * The original version of {@link BoundedBuffer} (minus the logging), which
+	 * wakes up every waiting thread after every operation.
+	 */
+	private static class NotifyAllBuffer implements Channel {
+		/** A circular buffer of elements. */
+		private final Object[] buffer = new Object[SIZE];
+
+		/** Beginning index of circular buffer. */
+		private int beg = 0;
+
+		/** Ending index of circular buffer. */
+		private int end = 0;
+
+		/** Number of elements stored in buffer. */
+		private int num = 0;
+
+		@Override
+		public synchronized void put(Integer item) throws InterruptedException {
+			while (num >= buffer.length) {
+				this.wait();
+			}
+
+			buffer[end] = item;
+			num++;
+			end = (end + 1) % buffer.length;
+
+			this.notifyAll();
+		}
+
+		@Override
+		public synchronized Integer get() throws InterruptedException {
+			while (num <= 0) {
+				this.wait();
+			}
+
+			Object item = buffer[beg];
+			num--;
+			beg = (beg + 1) % buffer.length;
+
+			this.notifyAll();
+			return (Integer) item;
+		}
+	}
+
+	/**
+	 * Passes {@link #ITEMS} items through the buffer using the specified number
+	 * of threads, and records how many context switches those threads had.
+	 *
+	 * @param buffer the buffer to use
+	 * @param threads the total number of producer and consumer threads
+	 * @param switches used to add up the context switches of every thread
+	 * @throws InterruptedException if interrupted while waiting for threads
+	 */
+	private static void run(Channel buffer, int threads, LongAdder switches)
+			throws InterruptedException {
+		int pairs = threads / 2;
+		int chunk = ITEMS / pairs;
+
+		Thread[] workers = new Thread[pairs * 2];
+
+		for (int i = 0; i < pairs; i++) {
+			workers[i] = new Thread(() -> {
+				long start = contextSwitches();
+
+				try {
+					for (int j = 0; j < chunk; j++) {
+						buffer.put(j);
+					}
+				}
+				catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+
+				switches.add(contextSwitches() - start);
+			});
+
+			workers[pairs + i] = new Thread(() -> {
+				long start = contextSwitches();
+
+				try {
+					for (int j = 0; j < chunk; j++) {
+						buffer.get();
+					}
+				}
+				catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+
+				switches.add(contextSwitches() - start);
+			});
+		}
+
+		for (Thread worker : workers) {
+			worker.start();
+		}
+
+		for (Thread worker : workers) {
+			worker.join();
+		}
+	}
+
+	/**
+	 * Benchmarks one version of the buffer with the specified number of threads
+	 * and outputs the average throughput and context switches per run.
+	 *
+	 * @param name the name to use in the output
+	 * @param version creates a new, empty buffer of the version to use
+	 * @param threads the total number of producer and consumer threads
+	 * @throws InterruptedException if interrupted while waiting for threads
+	 */
+	private static void benchmark(String name, Supplier<Channel> version, int threads)
+			throws InterruptedException {
+		for (int i = 0; i < WARMUP; i++) {
+			run(version.get(), threads, new LongAdder());
+		}
+
+		LongAdder switches = new LongAdder();
+		Instant start = Instant.now();
+
+		for (int i = 0; i < RUNS; i++) {
+			run(version.get(), threads, switches);
+		}
+
+		Duration elapsed = Duration.between(start, Instant.now());
+		double throughput = (double) ITEMS * RUNS / elapsed.toMillis();
+
+		System.out.printf("%10s %2d threads: %10.2f items/ms %10d context switches%n",
+				name, threads, throughput, switches.sum() / RUNS);
+	}
+
+	/**
+	 * Returns the number of voluntary and involuntary context switches of the
+	 * current thread thus far.
+	 *
+	 * @return number of context switches, or 0 if not available
+	 */
+	private static long contextSwitches() {
+		long total = 0;
+
+		try {
+			for (String line : Files.readAllLines(Path.of("/proc/thread-self/status"))) {
+				if (line.contains("ctxt_switches")) {
+					total += Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+				}
+			}
+		}
+		catch (IOException | NumberFormatException ex) {
+			return 0;
+		}
+
+		return total;
+	}
+
+	/**
+	 * Runs the benchmark for 2, 8, and 32 threads. The single-producer,
+	 * single-consumer buffer is only run with 2 threads.
+	 *
+	 * @param args unused
+	 * @throws InterruptedException if interrupted while waiting for threads
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		/*
+		 * Make sure you DISABLE LOGGING before running this benchmark!
+		 */
+		Configurator.setAllLevels(LogManager.getRootLogger().getName(), Level.OFF);
+
+		for (int threads : new int[] { 2, 8, 32 }) {
+			benchmark("notifyAll", NotifyAllBuffer::new, threads);
+			benchmark("signal", () -> Channel.of(new BoundedBuffer<>(SIZE)), threads);
+			benchmark("mpmc", () -> Channel.of(new MpmcRingBuffer<>(SIZE)), threads);
+
+			// only safe with exactly one producer and one consumer
+			if (threads == 2) {
+				benchmark("spsc", () -> Channel.of(new SpscRingBuffer<>(SIZE)), threads);
+			}
+		}
+	}
+}
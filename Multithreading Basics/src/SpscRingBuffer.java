@@ -0,0 +1,92 @@
+import java.util.Objects;
+
+/**
+ * A lock-free ring buffer that may be used by exactly one producer thread and
+ * exactly one consumer thread at a time. Since only the producer ever updates
+ * the ending counter and only the consumer ever updates the beginning counter,
+ * neither needs a lock or even a compare-and-set. Each side just has to
+ * publish its counter after it is done with the element, and read the counter
+ * of the other side before touching an element.
+ *
+ * Each side also remembers the last value it saw of the other counter, and only
+ * reads the other counter again when that value says the buffer is full (or
+ * empty). Most operations then never touch the cache line of the other side.
+ *
+ * Note: Using this buffer with more than one producer or more than one consumer
+ * will lose or duplicate elements. Use {@link MpmcRingBuffer} instead.
+ *
+ * @param <E> type of element to store in buffer
+ *
+ * @see MpmcRingBuffer
+ * @see BoundedBuffer
+ */
+public class SpscRingBuffer<E> extends RingBuffer<E> {
+
+	/** Counter of elements removed, only updated by the consumer. */
+	private final Sequence beg;
+
+	/** Counter of elements added, only updated by the producer. */
+	private final Sequence end;
+
+	/**
+	 * Initializes a ring buffer capable of storing at least {@code bufferSize}
+	 * elements at once.
+	 *
+	 * @param bufferSize size of buffer (should be positive), rounded up to the
+	 *        next power of two
+	 */
+	public SpscRingBuffer(int bufferSize) {
+		super(bufferSize);
+
+		beg = new Sequence();
+		end = new Sequence();
+	}
+
+	@Override
+	public boolean offer(E item) {
+		Objects.requireNonNull(item);
+		checkOpen();
+
+		// only the producer updates the end, so no need for a volatile read
+		long index = end.getPlain();
+
+		if (index - end.cached >= buffer.length) {
+			// looks full, so check how far the consumer has actually gotten
+			end.cached = beg.getAcquire();
+
+			if (index - end.cached >= buffer.length) {
+				return false;
+			}
+		}
+
+		buffer[(int) index & mask] = item;
+
+		// the consumer will see the item once it sees the new end
+		end.setRelease(index + 1);
+		return true;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		// only the consumer updates the beginning, so no need for a volatile read
+		long index = beg.getPlain();
+
+		if (index >= beg.cached) {
+			// looks empty, so check how far the producer has actually gotten
+			beg.cached = end.getAcquire();
+
+			if (index >= beg.cached) {
+				return null;
+			}
+		}
+
+		int position = (int) index & mask;
+		Object item = buffer[position];
+		buffer[position] = null; // Let the garbage collector have the item later.
+
+		// the producer may reuse the position once it sees the new beginning
+		beg.setRelease(index + 1);
+		return (E) item;
+	}
+}
@@ -0,0 +1,211 @@
+package listing;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Uses the Java Microbenchmark Harness (JMH) to compare the directory listing
+ * strategies. Unlike {@code ListingBenchmark}, JMH takes care of warming up the
+ * JVM, running each benchmark in a fresh JVM, and keeping the JIT compiler from
+ * optimizing away work whose result is never used.
+ *
+ * Each strategy lists a seeded synthetic directory tree that is generated once
+ * before the benchmarks run, so results do not depend on whatever happens to be
+ * on the machine. Every strategy is checked against the generated paths before
+ * any timing happens. Three shapes are used (in CI or production sizes):
+ *
+ * <ul>
+ * <li><b>wide</b>: a few levels of directories with many entries each</li>
+ * <li><b>deep</b>: long chains of nested directories with few entries each</li>
+ * <li><b>balanced</b>: somewhere in between</li>
+ * </ul>
+ *
+ * The throughput mode reports listings per second, and the sample time mode
+ * reports percentiles (including p99) of how long each listing takes. The GC
+ * profiler reports the allocation rate ({@code gc.alloc.rate.norm} is bytes
+ * allocated per listing).
+ *
+ * The benchmark is in a named package because JMH does not support the default
+ * package, so the listings are called through {@link Listings}.
+ *
+ * @see Listings
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ListingJmhBenchmark {
+
+	/**
+	 * The synthetic directory tree to list, shared by every thread running the
+	 * benchmark.
+	 */
+	@State(Scope.Benchmark)
+	public static class Tree {
+		/** The shape of the tree to list. */
+		@Param({ "wide", "deep", "balanced" })
+		public String shape;
+
+		/** The size of the tree to list, either "ci" or "production". */
+		@Param({ "ci" })
+		public String size;
+
+		/** The root of the tree. */
+		public Path root;
+
+		/**
+		 * Generates the tree and checks every strategy against it.
+		 *
+		 * @throws IOException if unable to generate the tree
+		 */
+		@Setup
+		public void setup() throws IOException {
+			// debug output would be timed along with the listing
+			Configurator.setAllLevels(LogManager.getRootLogger().getName(), Level.OFF);
+
+			root = Files.createTempDirectory("listing-" + shape);
+			Set<Path> expected = Listings.generate(generator(shape, size.equals("production")), root);
+			int threads = Runtime.getRuntime().availableProcessors();
+
+			check("Serial", Listings.SERIAL.list(root), expected);
+			check("Slow", Listings.SLOW.list(root), expected);
+			check("Multi", Listings.MULTI.list(root), expected);
+			check("Queue", Listings.QUEUE.list(root, threads), expected);
+			check("Executor", Listings.EXECUTOR.list(root, threads), expected);
+			check("ForkJoin", Listings.FORK_JOIN.list(root, threads), expected);
+		}
+
+		/**
+		 * Deletes the tree.
+		 *
+		 * @throws IOException if unable to delete the tree
+		 */
+		@TearDown
+		public void teardown() throws IOException {
+			Listings.delete(root);
+		}
+
+		/**
+		 * Returns the generator for a shape of tree.
+		 *
+		 * @param shape the shape of the tree
+		 * @param production whether to generate a production-sized tree
+		 * @return the {@code TreeGenerator} for the shape
+		 */
+		private static Object generator(String shape, boolean production) {
+			switch (shape) {
+				case "wide":
+					return production ? Listings.generator(Listings.SEED, 100, 2, 50, 0.05)
+							: Listings.generator(Listings.SEED, 40, 2, 25, 0.05);
+				case "deep":
+					return production ? Listings.generator(Listings.SEED, 2, 16, 3, 0.05)
+							: Listings.generator(Listings.SEED, 2, 10, 3, 0.05);
+				case "balanced":
+					return Listings.preset(production ? "PRODUCTION" : "CI");
+				default:
+					throw new IllegalArgumentException("Unknown shape: " + shape);
+			}
+		}
+
+		/**
+		 * Makes sure a strategy found exactly the generated paths.
+		 *
+		 * @param name the name of the strategy
+		 * @param actual the paths found by the strategy
+		 * @param expected the generated paths
+		 */
+		private static void check(String name, Set<Path> actual, Set<Path> expected) {
+			if (!actual.equals(expected)) {
+				throw new IllegalStateException(String.format(
+						"%s found %d paths instead of %d.", name, actual.size(), expected.size()));
+			}
+		}
+	}
+
+	/**
+	 * The number of threads used by the strategies that take one.
+	 */
+	@State(Scope.Benchmark)
+	public static class Pool {
+		/** The number of worker threads. */
+		@Param({ "1", "4", "16" })
+		public int threads;
+	}
+
+	@Benchmark
+	@SuppressWarnings("javadoc")
+	public Set<Path> serial(Tree tree) {
+		return Listings.SERIAL.list(tree.root);
+	}
+
+	@Benchmark
+	@SuppressWarnings("javadoc")
+	public Set<Path> slow(Tree tree) {
+		return Listings.SLOW.list(tree.root);
+	}
+
+	@Benchmark
+	@SuppressWarnings("javadoc")
+	public Set<Path> multi(Tree tree) {
+		return Listings.MULTI.list(tree.root);
+	}
+
+	@Benchmark
+	@SuppressWarnings("javadoc")
+	public Set<Path> queue(Tree tree, Pool pool) {
+		return Listings.QUEUE.list(tree.root, pool.threads);
+	}
+
+	@Benchmark
+	@SuppressWarnings("javadoc")
+	public Set<Path> executor(Tree tree, Pool pool) {
+		return Listings.EXECUTOR.list(tree.root, pool.threads);
+	}
+
+	@Benchmark
+	@SuppressWarnings("javadoc")
+	public Set<Path> forkJoin(Tree tree, Pool pool) {
+		return Listings.FORK_JOIN.list(tree.root, pool.threads);
+	}
+
+	/**
+	 * Runs all of the benchmarks with the GC profiler enabled. Benchmarks may
+	 * also be run using the JMH command-line options instead.
+	 *
+	 * @param args unused
+	 * @throws RunnerException if unable to run the benchmarks
+	 */
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(ListingJmhBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build();
+
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,312 @@
+package listing;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Reaches the directory listings of the Multithreading Work Queues project from
+ * this package. Like the rest of the lecture code, those classes are in the
+ * default package, which cannot be imported from a named package. However, JMH
+ * refuses to generate benchmarks for classes in the default package. Instead,
+ * the methods being benchmarked are looked up by name once using method
+ * handles, which the JIT compiler can inline just like a direct call.
+ *
+ * @see MethodHandles
+ */
+public class Listings {
+
+	/** Used to find the public classes of the default package. */
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+	/** The type of every {@code list(Path)} method. */
+	private static final MethodType LIST = MethodType.methodType(Set.class, Path.class);
+
+	/**
+	 * A directory listing that uses its default number of threads.
+	 */
+	@FunctionalInterface
+	public static interface Lister {
+		/**
+		 * Returns a directory listing for the given path.
+		 *
+		 * @param path directory to create listing
+		 * @return paths found within directory and its subdirectories
+		 */
+		public Set<Path> list(Path path);
+	}
+
+	/**
+	 * A directory listing that takes the number of threads to use.
+	 */
+	@FunctionalInterface
+	public static interface PooledLister {
+		/**
+		 * Returns a directory listing for the given path, using the given number
+		 * of threads.
+		 *
+		 * @param path directory to create listing
+		 * @param threads number of threads to use
+		 * @return paths found within directory and its subdirectories
+		 */
+		public Set<Path> list(Path path, int threads);
+	}
+
+	/** {@code SerialDirectoryListing.list(Path)} */
+	public static final Lister SERIAL = lister("SerialDirectoryListing");
+
+	/** {@code SlowMultithreadedDirectoryListing.list(Path)} */
+	public static final Lister SLOW = lister("SlowMultithreadedDirectoryListing");
+
+	/** {@code MultithreadedDirectoryListing.list(Path)} */
+	public static final Lister MULTI = lister("MultithreadedDirectoryListing");
+
+	/** {@code WorkQueueDirectoryListing.list(Path, ListingFilter.ALL, int)} */
+	public static final PooledLister QUEUE = unfiltered("WorkQueueDirectoryListing");
+
+	/** {@code ExecutorDirectoryListing.list(Path, int)} */
+	public static final PooledLister EXECUTOR = pooled("ExecutorDirectoryListing");
+
+	/** {@code ForkJoinDirectoryListing.list(Path, int)} */
+	public static final PooledLister FORK_JOIN = pooled("ForkJoinDirectoryListing");
+
+	/** The {@code TreeGenerator} class. */
+	private static final Class<?> GENERATOR = find("TreeGenerator");
+
+	/** {@code new TreeGenerator(long, int, int, int, double)} */
+	private static final MethodHandle CREATE = handle(() -> LOOKUP.findConstructor(GENERATOR,
+			MethodType.methodType(void.class, long.class, int.class, int.class, int.class,
+					double.class)));
+
+	/** {@code TreeGenerator.generate(Path)} */
+	private static final MethodHandle GENERATE = handle(
+			() -> LOOKUP.findVirtual(GENERATOR, "generate", LIST));
+
+	/** {@code TreeGenerator.SEED} */
+	public static final long SEED = (long) constant(() -> LOOKUP.findStaticGetter(GENERATOR,
+			"SEED", long.class));
+
+	/** {@code TreeGenerator.delete(Path)} */
+	private static final MethodHandle DELETE = handle(() -> LOOKUP.findStatic(GENERATOR,
+			"delete", MethodType.methodType(void.class, Path.class)));
+
+	/** Prevent instantiating this class of static methods. */
+	private Listings() {
+	}
+
+	/**
+	 * Returns a new tree generator.
+	 *
+	 * @param seed the seed for the random number generator
+	 * @param fanout the average number of subdirectories in each directory
+	 * @param depth the number of levels of subdirectories below the root
+	 * @param files the average number of files in each directory
+	 * @param symlinks the fraction of files that are symbolic links instead
+	 * @return the {@code TreeGenerator}
+	 */
+	public static Object generator(long seed, int fanout, int depth, int files, double symlinks) {
+		try {
+			return CREATE.invoke(seed, fanout, depth, files, symlinks);
+		}
+		catch (Throwable ex) {
+			throw rethrow(ex);
+		}
+	}
+
+	/**
+	 * Returns one of the {@code TreeGenerator} presets.
+	 *
+	 * @param name the name of the preset, either "CI" or "PRODUCTION"
+	 * @return the {@code TreeGenerator}
+	 */
+	public static Object preset(String name) {
+		return constant(() -> LOOKUP.findStaticGetter(GENERATOR, name, GENERATOR));
+	}
+
+	/**
+	 * Generates a tree using a {@code TreeGenerator}.
+	 *
+	 * @param generator the {@code TreeGenerator} to use
+	 * @param root the directory to generate the tree in
+	 * @return every path in the tree, including the root
+	 * @throws IOException if unable to create the tree
+	 */
+	@SuppressWarnings("unchecked")
+	public static Set<Path> generate(Object generator, Path root) throws IOException {
+		try {
+			return (Set<Path>) GENERATE.invoke(generator, root);
+		}
+		catch (IOException ex) {
+			throw ex;
+		}
+		catch (Throwable ex) {
+			throw rethrow(ex);
+		}
+	}
+
+	/**
+	 * Deletes a generated tree.
+	 *
+	 * @param root the root of the tree to delete
+	 * @throws IOException if unable to delete the tree
+	 */
+	public static void delete(Path root) throws IOException {
+		try {
+			DELETE.invoke(root);
+		}
+		catch (IOException ex) {
+			throw ex;
+		}
+		catch (Throwable ex) {
+			throw rethrow(ex);
+		}
+	}
+
+	/**
+	 * Reads a static field once.
+	 *
+	 * @param getter looks up the getter for the field
+	 * @return the value of the field
+	 */
+	private static Object constant(Finder getter) {
+		try {
+			return handle(getter).invoke();
+		}
+		catch (Throwable ex) {
+			throw rethrow(ex);
+		}
+	}
+
+	/**
+	 * Looks up the {@code list(Path)} method of a listing.
+	 *
+	 * @param name the name of the listing class
+	 * @return the listing
+	 */
+	@SuppressWarnings("unchecked")
+	private static Lister lister(String name) {
+		MethodHandle list = handle(() -> LOOKUP.findStatic(find(name), "list", LIST));
+
+		return path -> {
+			try {
+				return (Set<Path>) list.invokeExact(path);
+			}
+			catch (Throwable ex) {
+				throw rethrow(ex);
+			}
+		};
+	}
+
+	/**
+	 * Looks up the {@code list(Path, int)} method of a listing.
+	 *
+	 * @param name the name of the listing class
+	 * @return the listing
+	 */
+	private static PooledLister pooled(String name) {
+		return pooled(handle(() -> LOOKUP.findStatic(find(name), "list",
+				LIST.appendParameterTypes(int.class))));
+	}
+
+	/**
+	 * Looks up the {@code list(Path, ListingFilter, int)} method of a listing,
+	 * and always passes {@code ListingFilter.ALL} as the filter.
+	 *
+	 * @param name the name of the listing class
+	 * @return the listing
+	 */
+	private static PooledLister unfiltered(String name) {
+		Class<?> filter = find("ListingFilter");
+
+		return pooled(handle(() -> MethodHandles.insertArguments(
+				LOOKUP.findStatic(find(name), "list", LIST.appendParameterTypes(filter, int.class)),
+				1, LOOKUP.findStaticGetter(filter, "ALL", filter).invoke())));
+	}
+
+	/**
+	 * Wraps a {@code list(Path, int)} method handle.
+	 *
+	 * @param list the method handle
+	 * @return the listing
+	 */
+	@SuppressWarnings("unchecked")
+	private static PooledLister pooled(MethodHandle list) {
+		return (path, threads) -> {
+			try {
+				return (Set<Path>) list.invokeExact(path, threads);
+			}
+			catch (Throwable ex) {
+				throw rethrow(ex);
+			}
+		};
+	}
+
+	/**
+	 * Finds a class in the default package.
+	 *
+	 * @param name the name of the class
+	 * @return the class
+	 * @throws IllegalStateException if the class is not on the classpath
+	 */
+	private static Class<?> find(String name) {
+		try {
+			return Class.forName(name);
+		}
+		catch (ClassNotFoundException ex) {
+			throw new IllegalStateException(
+					"Unable to find " + name + ". Is the Multithreading Work Queues project on the classpath?", ex);
+		}
+	}
+
+	/**
+	 * Looks up a method handle, failing fast if it no longer exists.
+	 *
+	 * @param lookup looks up the method handle
+	 * @return the method handle
+	 * @throws IllegalStateException if the method does not exist
+	 */
+	private static MethodHandle handle(Finder lookup) {
+		try {
+			return lookup.find();
+		}
+		catch (Throwable ex) {
+			throw new IllegalStateException("Unable to find a benchmarked method.", ex);
+		}
+	}
+
+	/**
+	 * Unchecked exceptions are rethrown as-is, and checked exceptions are
+	 * wrapped.
+	 *
+	 * @param ex the exception thrown by a method handle
+	 * @return never returns normally, but may be used with {@code throw}
+	 */
+	private static RuntimeException rethrow(Throwable ex) {
+		if (ex instanceof RuntimeException) {
+			throw (RuntimeException) ex;
+		}
+
+		if (ex instanceof Error) {
+			throw (Error) ex;
+		}
+
+		throw new IllegalStateException(ex);
+	}
+
+	/**
+	 * Looks up a method handle, which may throw anything.
+	 */
+	@FunctionalInterface
+	private static interface Finder {
+		/**
+		 * Looks up the method handle.
+		 *
+		 * @return the method handle
+		 * @throws Throwable if the method does not exist
+		 */
+		public MethodHandle find() throws Throwable;
+	}
+}
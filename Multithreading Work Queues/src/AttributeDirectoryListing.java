@@ -0,0 +1,333 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SecureDirectoryStream;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This class demonstrates a version of {@link WorkQueueDirectoryListing} that
+ * also returns the size, last modified time, and type of every path found.
+ * Instead of calling {@link Files#isDirectory(Path, LinkOption...)} for each
+ * path (and leaving anyone who wants the size to call
+ * {@link Files#size(Path)} later), each task reads all of the basic attributes
+ * of a path at once. Both are a single system call, so we get the extra
+ * information for free.
+ *
+ * On some systems (like Linux), directory streams are also secure directory
+ * streams. These can read the attributes of a path relative to the open
+ * directory, so the operating system does not have to look up every directory
+ * along the full path again for each file.
+ *
+ * @see BasicFileAttributes
+ * @see SecureDirectoryStream
+ */
+public class AttributeDirectoryListing {
+
+	/** Logger to use for this class. */
+	private static final Logger log = LogManager.getLogger();
+
+	/**
+	 * Returns a directory listing for the given path, using secure directory
+	 * streams if available.
+	 *
+	 * @param path directory to create listing
+	 * @return paths found within directory and its subdirectories, with their
+	 *         attributes
+	 * @see #list(Path, boolean)
+	 */
+	public static Map<Path, BasicFileAttributes> list(Path path) {
+		return list(path, true);
+	}
+
+	/**
+	 * Returns a directory listing for the given path. Like the other listings,
+	 * symbolic links are followed. The attributes of broken links are those of
+	 * the link itself.
+	 *
+	 * @param path directory to create listing
+	 * @param secure whether to use secure directory streams if available
+	 * @return paths found within directory and its subdirectories, with their
+	 *         attributes
+	 */
+	public static Map<Path, BasicFileAttributes> list(Path path, boolean secure) {
+		return list(path, ListingFilter.ALL, secure);
+	}
+
+	/**
+	 * Returns a filtered directory listing for the given path, using secure
+	 * directory streams if available.
+	 *
+	 * @param path directory to create listing
+	 * @param filter which paths to include, exclude, and how deep to go
+	 * @return paths found within directory and its subdirectories, with their
+	 *         attributes
+	 * @see #list(Path, ListingFilter, boolean)
+	 */
+	public static Map<Path, BasicFileAttributes> list(Path path, ListingFilter filter) {
+		return list(path, filter, true);
+	}
+
+	/**
+	 * Returns a filtered directory listing for the given path. Excluded paths are
+	 * skipped before their attributes are read, so nothing within an excluded
+	 * directory is ever read or listed.
+	 *
+	 * @param path directory to create listing
+	 * @param filter which paths to include, exclude, and how deep to go
+	 * @param secure whether to use secure directory streams if available
+	 * @return paths found within directory and its subdirectories, with their
+	 *         attributes
+	 */
+	public static Map<Path, BasicFileAttributes> list(Path path, ListingFilter filter,
+			boolean secure) {
+		HashMap<Path, BasicFileAttributes> paths = new HashMap<>();
+
+		try {
+			BasicFileAttributes attributes = read(null, path);
+
+			if (filter.includes(path)) {
+				paths.put(path, attributes);
+			}
+
+			if (filter.descends(0) && attributes.isDirectory()) {
+				TaskMaster master = new TaskMaster(paths, filter, secure);
+				master.start(path);
+
+				try {
+					master.join();
+				}
+				catch (InterruptedException ex) {
+					log.catching(Level.DEBUG, ex);
+				}
+
+				master.tasks.shutdown();
+			}
+		}
+		catch (IOException ex) {
+			// the path does not exist (or cannot be read), so nothing to list
+			log.catching(Level.DEBUG, ex);
+		}
+
+		return paths;
+	}
+
+	/**
+	 * Reads the basic attributes of a path, following symbolic links unless the
+	 * link is broken.
+	 *
+	 * @param directory the secure directory stream the path was found in, or
+	 *        {@code null} to read the attributes using the full path
+	 * @param path the path to read the attributes of
+	 * @return the attributes of the path
+	 * @throws IOException if unable to read the attributes
+	 */
+	private static BasicFileAttributes read(SecureDirectoryStream<Path> directory, Path path)
+			throws IOException {
+		try {
+			if (directory != null) {
+				// relative to the open directory, so only the file name is needed
+				return directory.getFileAttributeView(path.getFileName(),
+						BasicFileAttributeView.class).readAttributes();
+			}
+
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		}
+		catch (IOException ex) {
+			// possibly a broken link, so try again without following links
+			if (directory != null) {
+				return directory.getFileAttributeView(path.getFileName(),
+						BasicFileAttributeView.class, LinkOption.NOFOLLOW_LINKS).readAttributes();
+			}
+
+			return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		}
+	}
+
+	/**
+	 * A task master that can share the results and work queue with its tasks.
+	 */
+	private static class TaskMaster {
+		/** The map of all paths found, only updated once all tasks finish. */
+		private final Map<Path, BasicFileAttributes> paths;
+
+		/** The paths found by each task, merged into the map of paths in join(). */
+		private final ConcurrentLinkedQueue<Map<Path, BasicFileAttributes>> results;
+
+		/** Which paths to include, exclude, and how deep to go. */
+		private final ListingFilter filter;
+
+		/** Whether to use secure directory streams if available. */
+		private final boolean secure;
+
+		/** The work queue that will handle all of the tasks. */
+		private final WorkQueue tasks;
+
+		/**
+		 * Initializes a task master given a map of paths.
+		 *
+		 * @param paths the map of paths to populate
+		 * @param filter which paths to include, exclude, and how deep to go
+		 * @param secure whether to use secure directory streams if available
+		 */
+		private TaskMaster(Map<Path, BasicFileAttributes> paths, ListingFilter filter,
+				boolean secure) {
+			this.paths = paths;
+			this.results = new ConcurrentLinkedQueue<>();
+			this.filter = filter;
+			this.secure = secure;
+			this.tasks = new WorkQueue();
+		}
+
+		/**
+		 * Creates the first task and gives it to the work queue.
+		 *
+		 * @param path directory to create listing
+		 */
+		private void start(Path path) {
+			tasks.execute(new Task(path, 0));
+		}
+
+		/**
+		 * The non-static task class that will add its results to our task master
+		 * instance.
+		 */
+		private class Task implements Runnable {
+			/** The path to list. */
+			private final Path path;
+
+			/** The depth of the path. */
+			private final int depth;
+
+			/**
+			 * Initializes this task.
+			 *
+			 * @param path the path to list
+			 * @param depth the depth of the path
+			 */
+			public Task(Path path, int depth) {
+				this.path = path;
+				this.depth = depth;
+				log.debug("Task for {} created.", path);
+			}
+
+			@Override
+			public void run() {
+				Map<Path, BasicFileAttributes> local = new HashMap<>();
+				List<Task> subtasks = new ArrayList<>();
+
+				try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+					SecureDirectoryStream<Path> directory = null;
+
+					if (secure && stream instanceof SecureDirectoryStream) {
+						directory = (SecureDirectoryStream<Path>) stream;
+					}
+
+					for (Path current : stream) {
+						// pruned before reading the attributes or creating a task
+						if (filter.excludes(current)) {
+							continue;
+						}
+
+						boolean included = filter.includes(current);
+						boolean descends = filter.descends(depth + 1);
+
+						// the attributes would not be used for anything
+						if (!included && !descends) {
+							continue;
+						}
+
+						try {
+							BasicFileAttributes attributes = read(directory, current);
+
+							if (included) {
+								local.put(current, attributes);
+							}
+
+							if (descends && attributes.isDirectory()) {
+								subtasks.add(new Task(current, depth + 1));
+							}
+						}
+						catch (IOException ex) {
+							// removed since it was listed, so there is nothing to report
+							log.catching(Level.DEBUG, ex);
+						}
+					}
+
+					// hand off all of the subdirectories at once
+					tasks.executeAll(subtasks);
+					results.add(local);
+				}
+				catch (IOException ex) {
+					log.catching(Level.DEBUG, ex);
+				}
+
+				log.debug("Task for {} finished.", path);
+			}
+		}
+
+		/**
+		 * Waits until all pending work is completed, and then merges the results.
+		 *
+		 * @throws InterruptedException
+		 */
+		private void join() throws InterruptedException {
+			log.debug("Waiting for work...");
+			tasks.finish();
+			log.debug("Work finished.");
+
+			// only this thread is using the map at this point, so no locking needed
+			for (Map<Path, BasicFileAttributes> result : results) {
+				paths.putAll(result);
+			}
+		}
+	}
+
+	/**
+	 * Tests the directory listing for a generated directory tree, and outputs
+	 * the number of directories and regular files found.
+	 *
+	 * @param args unused
+	 * @throws IOException if unable to generate or delete the tree
+	 * @see TreeGenerator
+	 */
+	public static void main(String[] args) throws IOException {
+		Path path = Files.createTempDirectory("listing");
+
+		try {
+			Set<Path> expected = TreeGenerator.CI.generate(path);
+			Map<Path, BasicFileAttributes> actual = list(path);
+
+			System.out.println(actual.keySet().equals(expected));
+
+			int directories = 0;
+			int files = 0;
+
+			for (BasicFileAttributes attributes : actual.values()) {
+				if (attributes.isDirectory()) {
+					directories++;
+				}
+				else if (attributes.isRegularFile()) {
+					files++;
+				}
+			}
+
+			System.out.printf("%d directories, %d files%n", directories, files);
+		}
+		finally {
+			TreeGenerator.delete(path);
+		}
+	}
+}
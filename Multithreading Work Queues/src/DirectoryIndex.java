@@ -0,0 +1,355 @@
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A long-lived index of all the paths within a directory and its
+ * subdirectories. The index starts with a parallel crawl (just like
+ * {@link WorkQueueDirectoryListing}), but instead of crawling again every time
+ * it is asked for the paths, it watches every directory for changes using a
+ * {@link WatchService} and keeps a concurrent set of paths up-to-date in the
+ * background. Checking whether a path exists in the index is then a quick
+ * lookup instead of a crawl.
+ *
+ * If too many changes happen at once, the watch service may lose track of
+ * them and report an overflow instead. In that case, only the directory that
+ * overflowed (and its subdirectories) is crawled again.
+ *
+ * Note: Some systems limit how many directories may be watched at once (see
+ * {@code /proc/sys/fs/inotify/max_user_watches} on Linux). Directories that
+ * could not be watched are still indexed, but changes to them will be missed
+ * (and their contents will stay in the index if they are deleted).
+ *
+ * @see WatchService
+ */
+public class DirectoryIndex implements Closeable {
+
+	/** Logger to use for this class. */
+	private static final Logger log = LogManager.getLogger();
+
+	/** The directory being indexed. */
+	private final Path root;
+
+	/** All of the paths currently within the directory. */
+	private final Set<Path> paths;
+
+	/** Watches every directory in the index for changes. */
+	private final WatchService watcher;
+
+	/** The directory each watch key belongs to. */
+	private final Map<WatchKey, Path> keys;
+
+	/** The watch key of each directory being watched. */
+	private final Map<Path, WatchKey> watched;
+
+	/** The work queue used to crawl directories. */
+	private final WorkQueue tasks;
+
+	/** Applies the changes reported by the watch service. */
+	private final Thread updater;
+
+	/**
+	 * Crawls the given directory and starts watching it for changes.
+	 *
+	 * @param root the directory to index
+	 * @throws IOException if unable to create the watch service
+	 */
+	public DirectoryIndex(Path root) throws IOException {
+		this.root = root;
+		this.paths = ConcurrentHashMap.newKeySet();
+		this.watcher = root.getFileSystem().newWatchService();
+		this.keys = new ConcurrentHashMap<>();
+		this.watched = new ConcurrentHashMap<>();
+		this.tasks = new WorkQueue();
+
+		if (Files.exists(root)) {
+			paths.add(root);
+
+			if (Files.isDirectory(root)) {
+				crawl(root);
+			}
+		}
+
+		this.updater = new Thread(this::update, "DirectoryIndex-" + root);
+		this.updater.setDaemon(true);
+		this.updater.start();
+	}
+
+	/**
+	 * Crawls a directory and its subdirectories in parallel, adding every path
+	 * found to the index and watching every directory found. Waits until the
+	 * crawl is finished.
+	 *
+	 * @param directory the directory to crawl
+	 */
+	private void crawl(Path directory) {
+		tasks.execute(new Task(directory));
+
+		try {
+			tasks.finish();
+		}
+		catch (InterruptedException ex) {
+			log.catching(Level.DEBUG, ex);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Lists a single directory, and creates more tasks for its subdirectories.
+	 */
+	private class Task implements Runnable {
+		/** The directory to list. */
+		private final Path path;
+
+		/**
+		 * Initializes this task.
+		 *
+		 * @param path the directory to list
+		 */
+		public Task(Path path) {
+			this.path = path;
+			log.debug("Task for {} created.", path);
+		}
+
+		@Override
+		public void run() {
+			// watch BEFORE listing, so nothing created in between is missed
+			try {
+				WatchKey key = path.register(watcher, ENTRY_CREATE, ENTRY_DELETE);
+				keys.put(key, path);
+				watched.put(path, key);
+			}
+			catch (IOException ex) {
+				log.warn("Unable to watch {}: {}", path, ex.getMessage());
+			}
+
+			List<Task> subtasks = new ArrayList<>();
+
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+				for (Path current : stream) {
+					paths.add(current);
+
+					if (Files.isDirectory(current)) {
+						subtasks.add(new Task(current));
+					}
+				}
+
+				// hand off all of the subdirectories at once
+				tasks.executeAll(subtasks);
+			}
+			catch (IOException ex) {
+				log.catching(Level.DEBUG, ex);
+			}
+
+			log.debug("Task for {} finished.", path);
+		}
+	}
+
+	/**
+	 * Removes a deleted path from the index. If the path was a watched
+	 * directory, also stops watching it and removes everything within it. (A
+	 * directory moved out of the tree would otherwise still be watched, and its
+	 * changes would be added under its old path.)
+	 *
+	 * @param path the path that was deleted
+	 */
+	private void remove(Path path) {
+		paths.remove(path);
+
+		WatchKey key = watched.remove(path);
+
+		// only directories have anything within them to remove
+		if (key != null) {
+			key.cancel();
+			keys.remove(key);
+			removeWithin(path);
+		}
+	}
+
+	/**
+	 * Removes everything within a directory (but not the directory itself) from
+	 * the index, and stops watching any subdirectories. This has to look at
+	 * every path in the index, so is only done when a whole directory is gone
+	 * (or lost track of).
+	 *
+	 * @param directory the directory to remove the contents of
+	 */
+	private void removeWithin(Path directory) {
+		paths.removeIf(path -> path.startsWith(directory) && !path.equals(directory));
+
+		watched.entrySet().removeIf(entry -> {
+			Path path = entry.getKey();
+
+			if (path.startsWith(directory) && !path.equals(directory)) {
+				entry.getValue().cancel();
+				keys.remove(entry.getValue());
+				return true;
+			}
+
+			return false;
+		});
+	}
+
+	/**
+	 * Waits for changes reported by the watch service and applies them to the
+	 * index, until the index is closed.
+	 */
+	private void update() {
+		try {
+			while (true) {
+				WatchKey key = watcher.take();
+				Path directory = keys.get(key);
+
+				if (directory != null) {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						apply(directory, event);
+					}
+				}
+
+				// no longer valid if the directory was deleted (or is no longer watched)
+				if (!key.reset()) {
+					keys.remove(key);
+
+					if (directory != null) {
+						watched.remove(directory, key);
+					}
+				}
+			}
+		}
+		catch (ClosedWatchServiceException ex) {
+			log.debug("Watch service closed.");
+		}
+		catch (InterruptedException ex) {
+			log.catching(Level.DEBUG, ex);
+		}
+	}
+
+	/**
+	 * Applies a single change reported by the watch service to the index.
+	 *
+	 * @param directory the directory the change happened in
+	 * @param event the change that happened
+	 */
+	private void apply(Path directory, WatchEvent<?> event) {
+		if (event.kind() == OVERFLOW) {
+			// lost track of what happened, so start over for just this directory
+			log.debug("Overflow in {}, crawling it again.", directory);
+			removeWithin(directory);
+			crawl(directory);
+			return;
+		}
+
+		Path path = directory.resolve((Path) event.context());
+
+		if (event.kind() == ENTRY_CREATE) {
+			paths.add(path);
+
+			// anything created within before we start watching it would be missed
+			if (Files.isDirectory(path)) {
+				crawl(path);
+			}
+		}
+		else if (event.kind() == ENTRY_DELETE) {
+			remove(path);
+		}
+	}
+
+	/**
+	 * Returns the directory being indexed.
+	 *
+	 * @return the directory being indexed
+	 */
+	public Path root() {
+		return root;
+	}
+
+	/**
+	 * Determines whether the path is currently in the index.
+	 *
+	 * @param path the path to look for
+	 * @return true if the path is in the index
+	 */
+	public boolean contains(Path path) {
+		return paths.contains(path);
+	}
+
+	/**
+	 * Returns the number of paths currently in the index.
+	 *
+	 * @return number of paths in the index
+	 */
+	public int size() {
+		return paths.size();
+	}
+
+	/**
+	 * Returns an unmodifiable view of the paths in the index. The view will
+	 * change as the index is updated in the background.
+	 *
+	 * @return unmodifiable view of the paths in the index
+	 */
+	public Set<Path> paths() {
+		return Collections.unmodifiableSet(paths);
+	}
+
+	/**
+	 * Stops watching for changes. The index will no longer be updated.
+	 *
+	 * @throws IOException if unable to close the watch service
+	 */
+	@Override
+	public void close() throws IOException {
+		watcher.close();
+		tasks.shutdown();
+	}
+
+	/**
+	 * Indexes a generated directory tree, and then checks that a new file shows
+	 * up in the index without crawling again.
+	 *
+	 * @param args unused
+	 * @throws IOException if unable to generate the tree, watch the directory, or
+	 *         create the file
+	 * @throws InterruptedException if interrupted while waiting for the update
+	 * @see TreeGenerator
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Path path = Files.createTempDirectory("listing");
+		Set<Path> expected = TreeGenerator.CI.generate(path);
+
+		try (DirectoryIndex index = new DirectoryIndex(path)) {
+			System.out.println(index.paths().equals(expected));
+
+			Path file = Files.createTempFile(path, "index", ".tmp");
+			Thread.sleep(500);
+			System.out.println(index.contains(file));
+
+			Files.delete(file);
+			Thread.sleep(500);
+			System.out.println(index.contains(file));
+		}
+		finally {
+			TreeGenerator.delete(path);
+		}
+	}
+}
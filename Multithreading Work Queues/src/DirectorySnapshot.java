@@ -0,0 +1,660 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A snapshot of a directory listing that remembers the type, size, and last
+ * modified time of every path found. Snapshots may be saved to and loaded from
+ * disk, and refreshed to find out what changed since the snapshot was taken.
+ *
+ * Refreshing a snapshot avoids listing directories that have not changed. A
+ * directory's last modified time changes whenever something is added to,
+ * removed from, or renamed within that directory, so if the time is the same
+ * as before, so are the paths within it. However, changes deeper in the tree
+ * do NOT update the times of the directories above them. That means every
+ * directory must still be checked, but only the directories that changed must
+ * be listed again.
+ *
+ * Times are only stored to some granularity, so a directory changed again
+ * within the same tick as the crawl that recorded it would keep the same time.
+ * Directories whose recorded time is too close to (or after) the start of the
+ * previous crawl are always listed again for that reason. So are directories
+ * that could not be listed last time (for example, due to permissions).
+ *
+ * Also, modifying a file does not update the time of its directory. By
+ * default, only files in directories that changed are checked for changes.
+ * Use {@link #refresh(boolean)} to check every file as well (which still
+ * avoids listing the unchanged directories).
+ *
+ * @see AttributeDirectoryListing
+ */
+public class DirectorySnapshot {
+
+	/** Logger to use for this class. */
+	private static final Logger log = LogManager.getLogger();
+
+	/**
+	 * How close (in microseconds) a directory's time may be to the start of a
+	 * crawl before that time can no longer be trusted. Some file systems only
+	 * store times to the nearest 2 seconds, and others use a coarse clock that
+	 * lags slightly behind the system clock.
+	 */
+	public static final long GRANULARITY = TimeUnit.SECONDS.toMicros(2);
+
+	/** The path the snapshot was taken of. */
+	private final Path root;
+
+	/** When the crawl for this snapshot started in microseconds since the epoch. */
+	private final long started;
+
+	/** The attributes of every path found. */
+	private final Map<Path, Entry> entries;
+
+	/** Paths found that were not in the previous snapshot. */
+	private final Set<Path> added;
+
+	/** Paths in the previous snapshot that were not found. */
+	private final Set<Path> removed;
+
+	/** Paths whose type changed, or files whose size or time changed. */
+	private final Set<Path> modified;
+
+	/** The number of directories listed to take this snapshot. */
+	private final long listed;
+
+	/** The number of directories that did not need to be listed again. */
+	private final long skipped;
+
+	/**
+	 * The type, size, and last modified time of a single path.
+	 */
+	public static class Entry {
+		/**
+		 * Used instead of the last modified time of a directory that could not be
+		 * listed, so it never matches and the directory is listed again next time.
+		 */
+		public static final long UNLISTED = Long.MIN_VALUE;
+
+		/** Whether the path is a directory. */
+		public final boolean directory;
+
+		/** The size of the path in bytes. */
+		public final long size;
+
+		/**
+		 * The last modified time of the path in microseconds since the epoch, or
+		 * {@link #UNLISTED} for a directory that could not be listed.
+		 */
+		public final long modified;
+
+		/**
+		 * Initializes this entry.
+		 *
+		 * @param directory whether the path is a directory
+		 * @param size the size of the path in bytes
+		 * @param modified the last modified time in microseconds since the epoch
+		 */
+		public Entry(boolean directory, long size, long modified) {
+			this.directory = directory;
+			this.size = size;
+			this.modified = modified;
+		}
+
+		/**
+		 * Initializes this entry from the attributes of a path.
+		 *
+		 * @param attributes the attributes of the path
+		 */
+		public Entry(BasicFileAttributes attributes) {
+			this(attributes.isDirectory(), attributes.size(),
+					attributes.lastModifiedTime().to(TimeUnit.MICROSECONDS));
+		}
+
+		/**
+		 * Determines whether the path this entry is for changed, ignoring the size
+		 * and time of directories (those change whenever their contents do).
+		 *
+		 * @param other the entry to compare against
+		 * @return true if the type changed, or if a file changed size or time
+		 */
+		public boolean differs(Entry other) {
+			if (directory != other.directory) {
+				return true;
+			}
+
+			return !directory && (size != other.size || modified != other.modified);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s, %d bytes, modified %d", directory ? "directory" : "file",
+					size, modified);
+		}
+	}
+
+	/**
+	 * Initializes a snapshot and figures out what changed since the previous
+	 * snapshot.
+	 *
+	 * @param root the path the snapshot was taken of
+	 * @param started when the crawl started in microseconds since the epoch
+	 * @param entries the attributes of every path found
+	 * @param previous the previous snapshot, or {@code null} if none
+	 * @param listed the number of directories listed
+	 * @param skipped the number of directories not listed again
+	 */
+	private DirectorySnapshot(Path root, long started, Map<Path, Entry> entries,
+			DirectorySnapshot previous, long listed, long skipped) {
+		this.root = root;
+		this.started = started;
+		this.entries = Collections.unmodifiableMap(entries);
+		this.listed = listed;
+		this.skipped = skipped;
+
+		Set<Path> added = new HashSet<>();
+		Set<Path> modified = new HashSet<>();
+		Set<Path> removed = new HashSet<>();
+
+		Map<Path, Entry> before = previous == null ? Map.of() : previous.entries;
+
+		for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+			Entry old = before.get(entry.getKey());
+
+			if (old == null) {
+				added.add(entry.getKey());
+			}
+			else if (old.differs(entry.getValue())) {
+				modified.add(entry.getKey());
+			}
+		}
+
+		for (Path path : before.keySet()) {
+			if (!entries.containsKey(path)) {
+				removed.add(path);
+			}
+		}
+
+		this.added = Collections.unmodifiableSet(added);
+		this.modified = Collections.unmodifiableSet(modified);
+		this.removed = Collections.unmodifiableSet(removed);
+	}
+
+	/**
+	 * Takes a new snapshot of the given path, listing every directory.
+	 *
+	 * @param root directory to take a snapshot of
+	 * @return snapshot of the directory (with everything found counted as added)
+	 * @throws InterruptedException if interrupted before the crawl finished (in
+	 *         which case there is no snapshot, since it would be incomplete)
+	 */
+	public static DirectorySnapshot take(Path root) throws InterruptedException {
+		return crawl(root, null, false);
+	}
+
+	/**
+	 * Takes a new snapshot of the same path, only listing the directories that
+	 * changed since this snapshot was taken.
+	 *
+	 * @return new snapshot, with the changes since this snapshot
+	 * @throws InterruptedException if interrupted before the crawl finished
+	 * @see #refresh(boolean)
+	 */
+	public DirectorySnapshot refresh() throws InterruptedException {
+		return refresh(false);
+	}
+
+	/**
+	 * Takes a new snapshot of the same path, only listing the directories that
+	 * changed since this snapshot was taken.
+	 *
+	 * @param files whether to also check files in directories that did not
+	 *        change (to find files that were modified in place)
+	 * @return new snapshot, with the changes since this snapshot
+	 * @throws InterruptedException if interrupted before the crawl finished
+	 */
+	public DirectorySnapshot refresh(boolean files) throws InterruptedException {
+		return crawl(root, this, files);
+	}
+
+	/**
+	 * Crawls the given path, reusing the previous snapshot for any directories
+	 * that did not change.
+	 *
+	 * @param root directory to take a snapshot of
+	 * @param previous the previous snapshot, or {@code null} if none
+	 * @param files whether to check files in directories that did not change
+	 * @return new snapshot
+	 * @throws InterruptedException if interrupted before the crawl finished
+	 */
+	private static DirectorySnapshot crawl(Path root, DirectorySnapshot previous, boolean files)
+			throws InterruptedException {
+		HashMap<Path, Entry> entries = new HashMap<>();
+
+		// anything changed after this may have the same time as what we record
+		long started = FileTime.from(Instant.now()).to(TimeUnit.MICROSECONDS);
+
+		try {
+			Entry entry = read(root);
+			entries.put(root, entry);
+
+			if (entry.directory) {
+				TaskMaster master = new TaskMaster(entries, previous, files);
+				master.start(root, entry);
+
+				try {
+					master.join();
+				}
+				catch (InterruptedException ex) {
+					// a partial snapshot would look like everything not found was removed
+					master.tasks.shutdownNow();
+					throw ex;
+				}
+
+				master.tasks.shutdown();
+
+				return new DirectorySnapshot(root, started, entries, previous,
+						master.listed.sum(), master.skipped.sum());
+			}
+		}
+		catch (IOException ex) {
+			// the path does not exist (or cannot be read), so nothing to list
+			log.catching(Level.DEBUG, ex);
+		}
+
+		return new DirectorySnapshot(root, started, entries, previous, 0, 0);
+	}
+
+	/**
+	 * Reads the attributes of a path, following symbolic links unless the link
+	 * is broken.
+	 *
+	 * @param path the path to read the attributes of
+	 * @return the entry for the path
+	 * @throws IOException if unable to read the attributes
+	 */
+	private static Entry read(Path path) throws IOException {
+		try {
+			return new Entry(Files.readAttributes(path, BasicFileAttributes.class));
+		}
+		catch (IOException ex) {
+			return new Entry(Files.readAttributes(path, BasicFileAttributes.class,
+					LinkOption.NOFOLLOW_LINKS));
+		}
+	}
+
+	/**
+	 * A task master that can share the previous snapshot, results, and work
+	 * queue with its tasks.
+	 */
+	private static class TaskMaster {
+		/** The map of all paths found, only updated once all tasks finish. */
+		private final Map<Path, Entry> entries;
+
+		/** The paths found by each task, merged into the map of paths in join(). */
+		private final ConcurrentLinkedQueue<Map<Path, Entry>> results;
+
+		/** The entries of the previous snapshot (possibly empty). */
+		private final Map<Path, Entry> before;
+
+		/** Directory times before this were recorded well before the previous crawl. */
+		private final long trusted;
+
+		/** The directories that could not be listed (or only partially). */
+		private final ConcurrentLinkedQueue<Path> unlisted;
+
+		/** The paths within each directory of the previous snapshot. */
+		private final Map<Path, List<Path>> children;
+
+		/** Whether to check files in directories that did not change. */
+		private final boolean files;
+
+		/** The number of directories listed. */
+		private final LongAdder listed;
+
+		/** The number of directories not listed again. */
+		private final LongAdder skipped;
+
+		/** The work queue that will handle all of the tasks. */
+		private final WorkQueue tasks;
+
+		/**
+		 * Initializes a task master.
+		 *
+		 * @param entries the map of paths to populate
+		 * @param previous the previous snapshot, or {@code null} if none
+		 * @param files whether to check files in directories that did not change
+		 */
+		private TaskMaster(Map<Path, Entry> entries, DirectorySnapshot previous, boolean files) {
+			this.entries = entries;
+			this.results = new ConcurrentLinkedQueue<>();
+			this.before = previous == null ? Map.of() : previous.entries;
+			this.trusted = previous == null ? Long.MIN_VALUE : previous.started - GRANULARITY;
+			this.unlisted = new ConcurrentLinkedQueue<>();
+			this.children = new HashMap<>();
+			this.files = files;
+			this.listed = new LongAdder();
+			this.skipped = new LongAdder();
+			this.tasks = new WorkQueue();
+
+			// snapshots only store paths, so group them by directory once up front
+			for (Path path : before.keySet()) {
+				Path parent = path.getParent();
+
+				if (parent != null) {
+					children.computeIfAbsent(parent, key -> new ArrayList<>()).add(path);
+				}
+			}
+		}
+
+		/**
+		 * Creates the first task and gives it to the work queue.
+		 *
+		 * @param root directory to take a snapshot of
+		 * @param entry the current attributes of the directory
+		 */
+		private void start(Path root, Entry entry) {
+			tasks.execute(new Task(root, entry));
+		}
+
+		/**
+		 * The non-static task class that will add its results to our task master
+		 * instance.
+		 */
+		private class Task implements Runnable {
+			/** The directory to list (or reuse the previous listing of). */
+			private final Path path;
+
+			/** The current attributes of the directory. */
+			private final Entry entry;
+
+			/**
+			 * Initializes this task.
+			 *
+			 * @param path the directory to list
+			 * @param entry the current attributes of the directory
+			 */
+			public Task(Path path, Entry entry) {
+				this.path = path;
+				this.entry = entry;
+				log.debug("Task for {} created.", path);
+			}
+
+			@Override
+			public void run() {
+				Map<Path, Entry> local = new HashMap<>();
+				List<Task> subtasks = new ArrayList<>();
+
+				Entry old = before.get(path);
+
+				// a time too close to the previous crawl may hide changes made right after it
+				if (old != null && old.directory && old.modified == entry.modified
+						&& old.modified < trusted) {
+					// same paths as before, so only check the ones that may have changed
+					skipped.increment();
+
+					for (Path current : children.getOrDefault(path, List.of())) {
+						Entry previous = before.get(current);
+
+						if (previous.directory || files) {
+							check(current, local, subtasks);
+						}
+						else {
+							local.put(current, previous);
+						}
+					}
+				}
+				else {
+					listed.increment();
+
+					try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+						for (Path current : stream) {
+							check(current, local, subtasks);
+						}
+					}
+					catch (IOException | DirectoryIteratorException ex) {
+						// otherwise the same time next time would skip it without its paths
+						unlisted.add(path);
+						log.catching(Level.DEBUG, ex);
+					}
+				}
+
+				// hand off all of the subdirectories at once
+				tasks.executeAll(subtasks);
+				results.add(local);
+
+				log.debug("Task for {} finished.", path);
+			}
+
+			/**
+			 * Reads the current attributes of a path, and creates a subtask if it is a
+			 * directory.
+			 *
+			 * @param current the path to check
+			 * @param local where to add the entry for the path
+			 * @param subtasks where to add a subtask for the path
+			 */
+			private void check(Path current, Map<Path, Entry> local, List<Task> subtasks) {
+				try {
+					Entry now = read(current);
+					local.put(current, now);
+
+					if (now.directory) {
+						subtasks.add(new Task(current, now));
+					}
+				}
+				catch (IOException ex) {
+					// removed since it was listed, so it will count as removed
+					log.catching(Level.DEBUG, ex);
+				}
+			}
+		}
+
+		/**
+		 * Waits until all pending work is completed, and then merges the results.
+		 *
+		 * @throws InterruptedException
+		 */
+		private void join() throws InterruptedException {
+			log.debug("Waiting for work...");
+			tasks.finish();
+			log.debug("Work finished.");
+
+			// only this thread is using the map at this point, so no locking needed
+			for (Map<Path, Entry> result : results) {
+				entries.putAll(result);
+			}
+
+			// replaced last, since the parent directory added the original entry
+			for (Path path : unlisted) {
+				Entry entry = entries.get(path);
+				entries.put(path, new Entry(true, entry.size, Entry.UNLISTED));
+			}
+		}
+	}
+
+	/**
+	 * Saves this snapshot to a file. Only the paths, their attributes, and when
+	 * the crawl started are saved, not what changed since the previous snapshot.
+	 *
+	 * @param file the file to save to
+	 * @throws IOException if unable to write to the file
+	 */
+	public void save(Path file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeUTF(root.toString());
+			out.writeLong(started);
+			out.writeInt(entries.size());
+
+			for (Map.Entry<Path, Entry> entry : entries.entrySet()) {
+				out.writeUTF(entry.getKey().toString());
+				out.writeBoolean(entry.getValue().directory);
+				out.writeLong(entry.getValue().size);
+				out.writeLong(entry.getValue().modified);
+			}
+		}
+	}
+
+	/**
+	 * Loads a snapshot previously saved to a file.
+	 *
+	 * @param file the file to load from
+	 * @return the loaded snapshot (with everything counted as added)
+	 * @throws IOException if unable to read the file
+	 * @see #save(Path)
+	 */
+	public static DirectorySnapshot load(Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(file)))) {
+			Path root = Path.of(in.readUTF());
+			long started = in.readLong();
+			int size = in.readInt();
+
+			HashMap<Path, Entry> entries = new HashMap<>();
+
+			for (int i = 0; i < size; i++) {
+				Path path = Path.of(in.readUTF());
+				entries.put(path, new Entry(in.readBoolean(), in.readLong(), in.readLong()));
+			}
+
+			return new DirectorySnapshot(root, started, entries, null, 0, 0);
+		}
+	}
+
+	/**
+	 * Returns the path this snapshot was taken of.
+	 *
+	 * @return the path this snapshot was taken of
+	 */
+	public Path root() {
+		return root;
+	}
+
+	/**
+	 * Returns when the crawl for this snapshot started.
+	 *
+	 * @return start of the crawl in microseconds since the epoch
+	 */
+	public long started() {
+		return started;
+	}
+
+	/**
+	 * Returns the attributes of every path found.
+	 *
+	 * @return unmodifiable map of paths to their attributes
+	 */
+	public Map<Path, Entry> entries() {
+		return entries;
+	}
+
+	/**
+	 * Returns the paths found that were not in the previous snapshot.
+	 *
+	 * @return unmodifiable set of added paths
+	 */
+	public Set<Path> added() {
+		return added;
+	}
+
+	/**
+	 * Returns the paths in the previous snapshot that were not found.
+	 *
+	 * @return unmodifiable set of removed paths
+	 */
+	public Set<Path> removed() {
+		return removed;
+	}
+
+	/**
+	 * Returns the paths whose type changed, or the files whose size or last
+	 * modified time changed since the previous snapshot.
+	 *
+	 * @return unmodifiable set of modified paths
+	 */
+	public Set<Path> modified() {
+		return modified;
+	}
+
+	/**
+	 * Returns the number of directories listed to take this snapshot.
+	 *
+	 * @return number of directories listed
+	 */
+	public long listed() {
+		return listed;
+	}
+
+	/**
+	 * Returns the number of directories that did not need to be listed again.
+	 *
+	 * @return number of directories skipped
+	 */
+	public long skipped() {
+		return skipped;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d paths (%d added, %d removed, %d modified), %d listed, %d skipped",
+				root, entries.size(), added.size(), removed.size(), modified.size(), listed, skipped);
+	}
+
+	/**
+	 * Takes a snapshot of a generated directory tree, saves and loads it again,
+	 * and then refreshes it.
+	 *
+	 * @param args unused
+	 * @throws IOException if unable to generate the tree, or save or load the
+	 *         snapshot
+	 * @throws InterruptedException if interrupted while waiting or crawling
+	 * @see TreeGenerator
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Path path = Files.createTempDirectory("listing");
+		Path file = Files.createTempFile("snapshot", ".bin");
+
+		try {
+			Set<Path> expected = TreeGenerator.CI.generate(path);
+
+			// otherwise every directory is too new to trust and is listed again
+			TimeUnit.MICROSECONDS.sleep(GRANULARITY);
+
+			DirectorySnapshot snapshot = take(path);
+			System.out.println(snapshot);
+			System.out.println(snapshot.entries().keySet().equals(expected));
+
+			snapshot.save(file);
+			snapshot = load(file).refresh();
+			System.out.println(snapshot);
+		}
+		finally {
+			Files.delete(file);
+			TreeGenerator.delete(path);
+		}
+	}
+}
@@ -2,8 +2,11 @@ import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -18,7 +21,9 @@ import org.apache.logging.log4j.Logger;
  * {@link SerialDirectoryListing}.
  *
  * Note: With a tweak to our work queues (moving the pending variable there),
- * we can avoid needing the TaskMaster class entirely!
+ * we can avoid needing the TaskMaster class entirely! Like
+ * {@link WorkQueueDirectoryListing}, the tasks here add their results to a
+ * lock-free queue that is merged into the set of paths once at the end.
  */
 public class ExecutorDirectoryListing {
 
@@ -32,13 +37,54 @@ public class ExecutorDirectoryListing {
 	 * @return paths found within directory and its subdirectories
 	 */
 	public static Set<Path> list(Path path) {
+		return list(path, WorkQueue.DEFAULT);
+	}
+
+	/**
+	 * Returns a directory listing for the given path, using the given number of
+	 * threads.
+	 *
+	 * @param path directory to create listing
+	 * @param threads number of threads in the thread pool
+	 * @return paths found within directory and its subdirectories
+	 */
+	public static Set<Path> list(Path path, int threads) {
+		return list(path, ListingFilter.ALL, threads);
+	}
+
+	/**
+	 * Returns a filtered directory listing for the given path. Excluded paths are
+	 * skipped before tasks are created for them, so excluded directories and
+	 * directories past the maximum depth never reach the thread pool.
+	 *
+	 * @param path directory to create listing
+	 * @param filter which paths to include, exclude, and how deep to go
+	 * @return paths found within directory and its subdirectories
+	 */
+	public static Set<Path> list(Path path, ListingFilter filter) {
+		return list(path, filter, WorkQueue.DEFAULT);
+	}
+
+	/**
+	 * Returns a filtered directory listing for the given path, using the given
+	 * number of threads.
+	 *
+	 * @param path directory to create listing
+	 * @param filter which paths to include, exclude, and how deep to go
+	 * @param threads number of threads in the thread pool
+	 * @return paths found within directory and its subdirectories
+	 * @see #list(Path, ListingFilter)
+	 */
+	public static Set<Path> list(Path path, ListingFilter filter, int threads) {
 		HashSet<Path> paths = new HashSet<>();
 
 		if (Files.exists(path)) {
-			paths.add(path);
+			if (filter.includes(path)) {
+				paths.add(path);
+			}
 
-			if (Files.isDirectory(path)) {
-				TaskMaster master = new TaskMaster(paths);
+			if (filter.descends(0) && Files.isDirectory(path)) {
+				TaskMaster master = new TaskMaster(paths, filter, threads);
 				master.start(path);
 
 				try {
@@ -60,9 +106,15 @@ public class ExecutorDirectoryListing {
 	 * keep track of pending work.
 	 */
 	private static class TaskMaster {
-		/** The shared set of all paths found thus far. */
+		/** The set of all paths found, only updated once all tasks finish. */
 		private final Set<Path> paths;
 
+		/** The paths found by each task, merged into the set of paths in join(). */
+		private final ConcurrentLinkedQueue<List<Path>> results;
+
+		/** Which paths to include, exclude, and how deep to go. */
+		private final ListingFilter filter;
+
 		/** The amount of pending (or unfinished) work. */
 		private AtomicInteger pending;
 
@@ -73,11 +125,15 @@ public class ExecutorDirectoryListing {
 		 * Initializes a task master given a set of paths.
 		 *
 		 * @param paths the set of shared paths to populate
+		 * @param filter which paths to include, exclude, and how deep to go
+		 * @param threads number of threads in the thread pool
 		 */
-		private TaskMaster(Set<Path> paths) {
+		private TaskMaster(Set<Path> paths, ListingFilter filter, int threads) {
 			this.paths = paths;
+			this.results = new ConcurrentLinkedQueue<>();
+			this.filter = filter;
 			this.pending = new AtomicInteger();
-			this.executor = Executors.newFixedThreadPool(WorkQueue.DEFAULT);
+			this.executor = Executors.newFixedThreadPool(threads);
 		}
 
 		/**
@@ -86,44 +142,56 @@ public class ExecutorDirectoryListing {
 		 * @param path directory to create listing
 		 */
 		private void start(Path path) {
-			executor.execute(new Task(path));
+			executor.execute(new Task(path, 0));
 		}
 
 		/**
-		 * The non-static task class that will update the shared paths and
-		 * pending members in our task master instance.
+		 * The non-static task class that will add its results to and update the
+		 * pending member of our task master instance.
 		 */
 		private class Task implements Runnable {
 			/** The path to add or list. */
 			private final Path path;
 
+			/** The depth of the path. */
+			private final int depth;
+
 			/**
 			 * Initializes this task.
 			 *
 			 * @param path the path to add or list
+			 * @param depth the depth of the path
 			 */
-			public Task(Path path) {
+			public Task(Path path, int depth) {
 				this.path = path;
+				this.depth = depth;
 				incrementPending();
 				log.debug("Task for {} created.", path);
 			}
 
 			@Override
 			public void run() {
-				Set<Path> local = new HashSet<>();
+				// every path in a directory is unique, so no need for a set here
+				List<Path> local = new ArrayList<>();
 
 				try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
 					for (Path current : stream) {
-						local.add(current);
+						// pruned before checking the type or creating a task
+						if (filter.excludes(current)) {
+							continue;
+						}
 
-						if (Files.isDirectory(current)) {
-							executor.execute(new Task(current));
+						if (filter.includes(current)) {
+							local.add(current);
 						}
-					}
 
-					synchronized (paths) {
-						paths.addAll(local);
+						if (filter.descends(depth + 1) && Files.isDirectory(current)) {
+							executor.execute(new Task(current, depth + 1));
+						}
 					}
+
+					// lock-free, so tasks never wait on each other to add results
+					results.add(local);
 				}
 				catch (IOException ex) {
 					log.catching(Level.DEBUG, ex);
@@ -152,6 +220,11 @@ public class ExecutorDirectoryListing {
 			}
 
 			log.debug("Work finished.");
+
+			// only this thread is using the set at this point, so no locking needed
+			for (List<Path> result : results) {
+				paths.addAll(result);
+			}
 		}
 
 		/**
@@ -176,15 +249,23 @@ public class ExecutorDirectoryListing {
 	}
 
 	/**
-	 * Tests the directory listing for the current directory.
+	 * Tests the directory listing for a generated directory tree.
 	 *
 	 * @param args unused
+	 * @throws IOException if unable to generate or delete the tree
+	 * @see TreeGenerator
 	 */
-	public static void main(String[] args) {
-		Path path = Path.of(".");
-		Set<Path> actual = list(path);
-		Set<Path> expected = SerialDirectoryListing.list(path);
+	public static void main(String[] args) throws IOException {
+		Path path = Files.createTempDirectory("listing");
+
+		try {
+			Set<Path> expected = TreeGenerator.CI.generate(path);
+			Set<Path> actual = list(path);
 
-		System.out.println(actual.equals(expected));
+			System.out.println(actual.equals(expected));
+		}
+		finally {
+			TreeGenerator.delete(path);
+		}
 	}
 }
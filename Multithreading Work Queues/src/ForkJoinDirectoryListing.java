@@ -0,0 +1,242 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This class demonstrates how the recursive approach of
+ * {@link SerialDirectoryListing} maps directly onto a {@link ForkJoinPool}.
+ * Each directory is a {@link RecursiveTask} that returns the paths within its
+ * subtree. Instead of handing results to a task master, each task forks its
+ * subdirectories, joins them, and merges their results into its own.
+ *
+ * Every worker thread in a fork/join pool has its own deque of tasks. Forked
+ * tasks go on the worker's own deque, and idle workers steal from the other
+ * end of someone else's deque. A worker that joins a task that has not started
+ * yet just runs the task itself instead of waiting.
+ *
+ * Forking a task is cheap, but not free. Directories with only a few entries
+ * list their subdirectories inline (which may still fork further down if a
+ * subdirectory turns out to be large).
+ *
+ * @see ForkJoinPool
+ * @see RecursiveTask
+ */
+public class ForkJoinDirectoryListing {
+
+	/** Logger to use for this class. */
+	private static final Logger log = LogManager.getLogger();
+
+	/** Directories with fewer entries than this list subdirectories inline. */
+	public static final int THRESHOLD = 16;
+
+	/**
+	 * Returns a directory listing for the given path.
+	 *
+	 * @param path directory to create listing
+	 * @return paths found within directory and its subdirectories
+	 */
+	public static Set<Path> list(Path path) {
+		return list(path, WorkQueue.DEFAULT);
+	}
+
+	/**
+	 * Returns a directory listing for the given path, using the given number of
+	 * worker threads.
+	 *
+	 * @param path directory to create listing
+	 * @param threads number of worker threads in the fork/join pool
+	 * @return paths found within directory and its subdirectories
+	 */
+	public static Set<Path> list(Path path, int threads) {
+		return list(path, ListingFilter.ALL, threads);
+	}
+
+	/**
+	 * Returns a filtered directory listing for the given path. Excluded paths are
+	 * skipped before tasks are created for them, so excluded directories and
+	 * directories past the maximum depth are never forked.
+	 *
+	 * @param path directory to create listing
+	 * @param filter which paths to include, exclude, and how deep to go
+	 * @return paths found within directory and its subdirectories
+	 */
+	public static Set<Path> list(Path path, ListingFilter filter) {
+		return list(path, filter, WorkQueue.DEFAULT);
+	}
+
+	/**
+	 * Returns a filtered directory listing for the given path, using the given
+	 * number of worker threads.
+	 *
+	 * @param path directory to create listing
+	 * @param filter which paths to include, exclude, and how deep to go
+	 * @param threads number of worker threads in the fork/join pool
+	 * @return paths found within directory and its subdirectories
+	 * @see #list(Path, ListingFilter)
+	 */
+	public static Set<Path> list(Path path, ListingFilter filter, int threads) {
+		Set<Path> paths = new HashSet<>();
+
+		if (!Files.exists(path)) {
+			return paths;
+		}
+
+		if (!filter.descends(0) || !Files.isDirectory(path)) {
+			if (filter.includes(path)) {
+				paths.add(path);
+			}
+
+			return paths;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+
+		try {
+			paths = pool.invoke(new Task(path, 0, filter));
+
+			if (filter.includes(path)) {
+				paths.add(path);
+			}
+
+			return paths;
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Lists a single directory, and returns the paths within its subtree.
+	 */
+	private static class Task extends RecursiveTask<Set<Path>> {
+		/** Version ID for serialization. */
+		private static final long serialVersionUID = 1L;
+
+		/** The path to list. */
+		private final Path path;
+
+		/** The depth of the path. */
+		private final int depth;
+
+		/** Which paths to include, exclude, and how deep to go. */
+		private final ListingFilter filter;
+
+		/**
+		 * Initializes this task.
+		 *
+		 * @param path the path to list
+		 * @param depth the depth of the path
+		 * @param filter which paths to include, exclude, and how deep to go
+		 */
+		public Task(Path path, int depth, ListingFilter filter) {
+			this.path = path;
+			this.depth = depth;
+			this.filter = filter;
+			log.debug("Task for {} created.", path);
+		}
+
+		@Override
+		protected Set<Path> compute() {
+			Set<Path> paths = new HashSet<>();
+			List<Task> subtasks = new ArrayList<>();
+			int entries = 0;
+
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+				for (Path current : stream) {
+					// pruned before checking the type or creating a task
+					if (filter.excludes(current)) {
+						continue;
+					}
+
+					entries++;
+
+					if (filter.includes(current)) {
+						paths.add(current);
+					}
+
+					if (filter.descends(depth + 1) && Files.isDirectory(current)) {
+						subtasks.add(new Task(current, depth + 1, filter));
+					}
+				}
+			}
+			catch (IOException ex) {
+				log.catching(Level.DEBUG, ex);
+			}
+
+			if (entries < THRESHOLD) {
+				// not worth forking, so list the subdirectories ourselves
+				for (Task subtask : subtasks) {
+					paths = merge(paths, subtask.compute());
+				}
+			}
+			else if (!subtasks.isEmpty()) {
+				// fork all but one, and work on the last one while the others are stolen
+				Task last = subtasks.remove(subtasks.size() - 1);
+
+				for (Task subtask : subtasks) {
+					subtask.fork();
+				}
+
+				paths = merge(paths, last.compute());
+
+				// join in reverse order, so the ones still on our deque are popped first
+				for (int i = subtasks.size() - 1; i >= 0; i--) {
+					paths = merge(paths, subtasks.get(i).join());
+				}
+			}
+
+			log.debug("Task for {} finished.", path);
+			return paths;
+		}
+
+		/**
+		 * Merges two sets by adding the smaller set to the larger one, so large
+		 * subtrees are not copied again at every level on the way up.
+		 *
+		 * @param first one set of paths
+		 * @param second the other set of paths
+		 * @return the merged set (whichever of the two sets was larger)
+		 */
+		private static Set<Path> merge(Set<Path> first, Set<Path> second) {
+			if (first.size() < second.size()) {
+				second.addAll(first);
+				return second;
+			}
+
+			first.addAll(second);
+			return first;
+		}
+	}
+
+	/**
+	 * Tests the directory listing for a generated directory tree.
+	 *
+	 * @param args unused
+	 * @throws IOException if unable to generate or delete the tree
+	 * @see TreeGenerator
+	 */
+	public static void main(String[] args) throws IOException {
+		Path path = Files.createTempDirectory("listing");
+
+		try {
+			Set<Path> expected = TreeGenerator.CI.generate(path);
+			Set<Path> actual = list(path);
+
+			System.out.println(actual.equals(expected));
+		}
+		finally {
+			TreeGenerator.delete(path);
+		}
+	}
+}
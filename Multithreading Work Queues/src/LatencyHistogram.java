@@ -0,0 +1,126 @@
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A simple histogram of latencies that many threads may add to at once without
+ * locking. Instead of storing every latency, the histogram only counts how many
+ * latencies fall into each bucket, where each bucket is twice as wide as the
+ * one before it. This means percentiles are only estimates (rounded up to the
+ * end of their bucket), but recording a latency is very cheap.
+ *
+ * @see WorkQueue#latency(WorkQueue.Priority)
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Number of latencies in each bucket. Bucket 0 counts latencies of 0 ns, and
+	 * bucket {@code i} counts latencies from 2<sup>i-1</sup> (inclusive) up to
+	 * 2<sup>i</sup> (exclusive) nanoseconds.
+	 */
+	private final AtomicLongArray buckets;
+
+	/** The number of latencies recorded. */
+	private final LongAdder count;
+
+	/** The sum of all latencies recorded in nanoseconds. */
+	private final LongAdder total;
+
+	/** The largest latency recorded in nanoseconds. */
+	private final AtomicLong max;
+
+	/**
+	 * Initializes an empty histogram.
+	 */
+	public LatencyHistogram() {
+		this.buckets = new AtomicLongArray(Long.SIZE);
+		this.count = new LongAdder();
+		this.total = new LongAdder();
+		this.max = new AtomicLong();
+	}
+
+	/**
+	 * Adds a latency to the histogram. Negative latencies are treated as 0.
+	 *
+	 * @param nanos the latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		nanos = Math.max(0, nanos);
+
+		buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(nanos));
+		count.increment();
+		total.add(nanos);
+
+		// only pay for the update when we have a new maximum
+		if (nanos > max.get()) {
+			max.accumulateAndGet(nanos, Math::max);
+		}
+	}
+
+	/**
+	 * Returns the number of latencies recorded.
+	 *
+	 * @return number of latencies recorded
+	 */
+	public long count() {
+		return count.sum();
+	}
+
+	/**
+	 * Returns the average latency recorded.
+	 *
+	 * @return average latency, or 0 if nothing was recorded
+	 */
+	public Duration mean() {
+		long recorded = count.sum();
+		return Duration.ofNanos(recorded == 0 ? 0 : total.sum() / recorded);
+	}
+
+	/**
+	 * Returns the largest latency recorded.
+	 *
+	 * @return largest latency, or 0 if nothing was recorded
+	 */
+	public Duration max() {
+		return Duration.ofNanos(max.get());
+	}
+
+	/**
+	 * Estimates the latency that the provided fraction of recorded latencies
+	 * are at or below. For example, {@code percentile(0.99)} estimates the 99th
+	 * percentile latency.
+	 *
+	 * @param fraction the fraction of latencies (between 0 and 1)
+	 * @return estimated latency, or 0 if nothing was recorded
+	 */
+	public Duration percentile(double fraction) {
+		long recorded = 0;
+
+		for (int i = 0; i < buckets.length(); i++) {
+			recorded += buckets.get(i);
+		}
+
+		long target = (long) Math.ceil(fraction * recorded);
+		long seen = 0;
+
+		for (int i = 0; i < buckets.length(); i++) {
+			seen += buckets.get(i);
+
+			if (seen >= target && seen > 0) {
+				// the end of this bucket, but never more than the largest latency
+				long end = i == 0 ? 0 : i == Long.SIZE - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+				return Duration.ofNanos(Math.min(end, max.get()));
+			}
+		}
+
+		return Duration.ZERO;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d recorded, %d us mean, %d us p50, %d us p99, %d us max",
+				count(), mean().toNanos() / 1000, percentile(0.50).toNanos() / 1000,
+				percentile(0.99).toNanos() / 1000, max().toNanos() / 1000);
+	}
+}
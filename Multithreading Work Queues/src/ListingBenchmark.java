@@ -1,7 +1,16 @@
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 @SuppressWarnings("javadoc")
 public class ListingBenchmark {
@@ -15,45 +24,103 @@ public class ListingBenchmark {
 	 * work queue can make on the runtime. However, even with the work queue, it
 	 * might be slower than single threading for this particular problem since it
 	 * has so many write operations versus read operations.
+	 *
+	 * After the timed rounds, one more round is recorded with Java Flight
+	 * Recorder to see how long threads were blocked waiting to enter
+	 * synchronized blocks (like the one used to merge results into a shared set)
+	 * or to acquire a lock (like the one inside the work queue).
+	 *
+	 * Every strategy lists the same seeded synthetic tree, so results can be
+	 * compared across machines and runs (see TreeGenerator).
 	 */
 
-	public static void main(String[] args) {
-		// TODO Change this to a large directory on your system!
-		Path test = Path.of("..");
-		Set<Path> expected = SerialDirectoryListing.list(test);
+	public static void main(String[] args) throws IOException {
+		// use "production" for a large tree (to see virtual threads shine)
+		TreeGenerator generator = args.length > 0 && args[0].equals("production")
+				? TreeGenerator.PRODUCTION : TreeGenerator.CI;
+
+		Path test = Files.createTempDirectory("listing");
+
+		try {
+			Set<Path> expected = generator.generate(test);
+			System.out.printf("%s: %d paths%n", generator, expected.size());
+			benchmark(test, expected);
+		}
+		finally {
+			TreeGenerator.delete(test);
+		}
+	}
 
+	public static void benchmark(Path test, Set<Path> expected) {
 		new Benchmarker("Serial") {
 			@Override
 			public Set<Path> run(Path path) {
-				return SerialDirectoryListing.list(test);
+				return SerialDirectoryListing.list(path);
 			}
 		}.benchmark(test, expected);
 
 		new Benchmarker("Slow") {
 			@Override
 			public Set<Path> run(Path path) {
-				return SlowMultithreadedDirectoryListing.list(test);
+				return SlowMultithreadedDirectoryListing.list(path);
 			}
 		}.benchmark(test, expected);
 
 		new Benchmarker("Multi") {
 			@Override
 			public Set<Path> run(Path path) {
-				return MultithreadedDirectoryListing.list(test);
+				return MultithreadedDirectoryListing.list(path);
 			}
 		}.benchmark(test, expected);
 
 		new Benchmarker("Queue") {
 			@Override
 			public Set<Path> run(Path path) {
-				return WorkQueueDirectoryListing.list(test);
+				return WorkQueueDirectoryListing.list(path);
 			}
 		}.benchmark(test, expected);
 
 		new Benchmarker("Executor") {
 			@Override
 			public Set<Path> run(Path path) {
-				return ExecutorDirectoryListing.list(test);
+				return ExecutorDirectoryListing.list(path);
+			}
+		}.benchmark(test, expected);
+
+		new Benchmarker("ForkJoin") {
+			@Override
+			public Set<Path> run(Path path) {
+				return ForkJoinDirectoryListing.list(path);
+			}
+		}.benchmark(test, expected);
+
+		new Benchmarker("Virtual") {
+			@Override
+			public Set<Path> run(Path path) {
+				return VirtualThreadDirectoryListing.list(path);
+			}
+		}.benchmark(test, expected);
+
+		new Benchmarker("Attributes") {
+			@Override
+			public Set<Path> run(Path path) {
+				return AttributeDirectoryListing.list(path, false).keySet();
+			}
+		}.benchmark(test, expected);
+
+		new Benchmarker("Secure") {
+			@Override
+			public Set<Path> run(Path path) {
+				return AttributeDirectoryListing.list(path, true).keySet();
+			}
+		}.benchmark(test, expected);
+
+		new Benchmarker("Stream") {
+			@Override
+			public Set<Path> run(Path path) {
+				try (Stream<Path> stream = StreamingDirectoryListing.stream(path)) {
+					return stream.collect(Collectors.toSet());
+				}
 			}
 		}.benchmark(test, expected);
 	}
@@ -93,7 +160,54 @@ public class ListingBenchmark {
 			// averaged result
 			Duration elapsed = Duration.between(start, end);
 			double average = (double) elapsed.toMillis() / TIMED_ROUNDS;
-			System.out.printf("%8.2fms%n", average);
+			System.out.printf("%8.2fms", average);
+
+			// separate round since recording every monitor and lock slows things down
+			System.out.printf(" %8.2fms blocked on locks%n", blocked(path).toNanos() / 1e6);
+		}
+
+		public Duration blocked(Path path) {
+			Duration total = Duration.ZERO;
+
+			try (Recording recording = new Recording()) {
+				recording.enable("jdk.JavaMonitorEnter").withThreshold(Duration.ZERO);
+
+				// waiting for a ReentrantLock shows up as parking instead
+				recording.enable("jdk.ThreadPark").withThreshold(Duration.ZERO);
+				recording.start();
+				run(path);
+				recording.stop();
+
+				Path file = Files.createTempFile("listing", ".jfr");
+
+				try {
+					recording.dump(file);
+
+					for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+						if (contended(event)) {
+							total = total.plus(event.getDuration());
+						}
+					}
+				}
+				finally {
+					Files.delete(file);
+				}
+			}
+			catch (IOException ex) {
+				System.err.println("Unable to record lock events: " + ex.getMessage());
+			}
+
+			return total;
+		}
+
+		public static boolean contended(RecordedEvent event) {
+			if (!event.getEventType().getName().equals("jdk.ThreadPark")) {
+				return true;
+			}
+
+			// only parking on a lock, not idle threads waiting on a condition for work
+			RecordedClass blocker = event.getClass("parkedClass");
+			return blocker != null && blocker.getName().endsWith("Sync");
 		}
 	}
 }
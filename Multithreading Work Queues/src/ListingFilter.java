@@ -0,0 +1,103 @@
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+
+/**
+ * Decides which paths a directory listing should include, which paths it
+ * should skip entirely, and how deep it should go. Excluded paths are skipped
+ * before checking whether they are directories, so an excluded directory (like
+ * {@code .git} or {@code node_modules}) is never listed and no tasks are ever
+ * created for anything within it.
+ *
+ * The matchers are given paths as they are found by the listing, which means
+ * they start with the directory being listed. For example:
+ *
+ * <pre>
+ * PathMatcher java = p -&gt; p.toString().endsWith(".java");
+ * PathMatcher git = p -&gt; p.getFileName().toString().equals(".git");
+ * ListingFilter filter = new ListingFilter(java, git, 5);
+ * </pre>
+ *
+ * @see SerialDirectoryListing#list(Path, ListingFilter)
+ * @see WorkQueueDirectoryListing#list(Path, ListingFilter)
+ * @see StreamingDirectoryListing#stream(Path, ListingFilter)
+ * @see ExecutorDirectoryListing#list(Path, ListingFilter)
+ * @see VirtualThreadDirectoryListing#list(Path, ListingFilter)
+ * @see AttributeDirectoryListing#list(Path, ListingFilter)
+ * @see ForkJoinDirectoryListing#list(Path, ListingFilter)
+ */
+public class ListingFilter {
+
+	/** Includes every path, excludes nothing, and has no maximum depth. */
+	public static final ListingFilter ALL = new ListingFilter(p -> true, p -> false,
+			Integer.MAX_VALUE);
+
+	/** Which paths to include in the listing. */
+	private final PathMatcher include;
+
+	/** Which paths (and everything within them) to skip entirely. */
+	private final PathMatcher exclude;
+
+	/** The maximum depth to list, where the original path is at depth 0. */
+	private final int maxDepth;
+
+	/**
+	 * Initializes this filter.
+	 *
+	 * @param include which paths to include in the listing; directories that are
+	 *        not included are still listed
+	 * @param exclude which paths (and everything within them) to skip entirely
+	 * @param maxDepth the maximum depth to list, where the original path is at
+	 *        depth 0 and the paths directly within it are at depth 1
+	 */
+	public ListingFilter(PathMatcher include, PathMatcher exclude, int maxDepth) {
+		this.include = include;
+		this.exclude = exclude;
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Creates a filter from glob patterns, such as <code>"**.java"</code> or
+	 * <code>"**&#47;{.git,node_modules}"</code>.
+	 *
+	 * @param include glob pattern of paths to include in the listing
+	 * @param exclude glob pattern of paths to skip entirely
+	 * @param maxDepth the maximum depth to list
+	 * @return filter using the glob patterns
+	 * @see java.nio.file.FileSystem#getPathMatcher(String)
+	 */
+	public static ListingFilter glob(String include, String exclude, int maxDepth) {
+		return new ListingFilter(FileSystems.getDefault().getPathMatcher("glob:" + include),
+				FileSystems.getDefault().getPathMatcher("glob:" + exclude), maxDepth);
+	}
+
+	/**
+	 * Determines whether a path should be included in the listing.
+	 *
+	 * @param path the path to check
+	 * @return true if the path should be included
+	 */
+	public boolean includes(Path path) {
+		return include.matches(path);
+	}
+
+	/**
+	 * Determines whether a path (and everything within it) should be skipped.
+	 *
+	 * @param path the path to check
+	 * @return true if the path should be skipped
+	 */
+	public boolean excludes(Path path) {
+		return exclude.matches(path);
+	}
+
+	/**
+	 * Determines whether a directory at the given depth should be listed.
+	 *
+	 * @param depth the depth of the directory
+	 * @return true if the paths within the directory are not too deep
+	 */
+	public boolean descends(int depth) {
+		return depth < maxDepth;
+	}
+}
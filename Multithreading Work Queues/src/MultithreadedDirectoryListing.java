@@ -198,15 +198,23 @@ public class MultithreadedDirectoryListing {
 	}
 
 	/**
-	 * Tests the directory listing for the current directory.
+	 * Tests the directory listing for a generated directory tree.
 	 *
 	 * @param args unused
+	 * @throws IOException if unable to generate or delete the tree
+	 * @see TreeGenerator
 	 */
-	public static void main(String[] args) {
-		Path path = Path.of(".");
-		Set<Path> actual = list(path);
-		Set<Path> expected = SerialDirectoryListing.list(path);
+	public static void main(String[] args) throws IOException {
+		Path path = Files.createTempDirectory("listing");
 
-		System.out.println(actual.equals(expected));
+		try {
+			Set<Path> expected = TreeGenerator.CI.generate(path);
+			Set<Path> actual = list(path);
+
+			System.out.println(actual.equals(expected));
+		}
+		finally {
+			TreeGenerator.delete(path);
+		}
 	}
 }
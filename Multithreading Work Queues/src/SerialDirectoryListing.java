@@ -25,13 +25,27 @@ public class SerialDirectoryListing {
 	 * @return paths found within directory and its subdirectories
 	 */
 	public static Set<Path> list(Path path) {
+		return list(path, ListingFilter.ALL);
+	}
+
+	/**
+	 * Returns a filtered directory listing for the given path. Excluded
+	 * directories and directories past the maximum depth are never listed.
+	 *
+	 * @param path directory to create listing
+	 * @param filter which paths to include, exclude, and how deep to go
+	 * @return paths found within directory and its subdirectories
+	 */
+	public static Set<Path> list(Path path, ListingFilter filter) {
 		HashSet<Path> paths = new HashSet<>();
 
 		if (Files.exists(path)) {
-			paths.add(path);
+			if (filter.includes(path)) {
+				paths.add(path);
+			}
 
-			if (Files.isDirectory(path)) {
-				list(path, paths);
+			if (filter.descends(0) && Files.isDirectory(path)) {
+				list(path, 0, filter, paths);
 			}
 		}
 
@@ -43,15 +57,23 @@ public class SerialDirectoryListing {
 	 * exceptions.
 	 *
 	 * @param path the path to add or list
+	 * @param depth the depth of the path
+	 * @param filter which paths to include, exclude, and how deep to go
 	 * @param paths the set of all paths found thus far
 	 */
-	private static void list(Path path, Set<Path> paths) {
+	private static void list(Path path, int depth, ListingFilter filter, Set<Path> paths) {
 		try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
 			for (Path current : stream) {
-				paths.add(current);
+				if (filter.excludes(current)) {
+					continue;
+				}
+
+				if (filter.includes(current)) {
+					paths.add(current);
+				}
 
-				if (Files.isDirectory(current)) {
-					list(current, paths);
+				if (filter.descends(depth + 1) && Files.isDirectory(current)) {
+					list(current, depth + 1, filter, paths);
 				}
 			}
 		}
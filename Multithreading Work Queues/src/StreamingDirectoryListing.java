@@ -0,0 +1,346 @@
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This class demonstrates how to stream the results of
+ * {@link WorkQueueDirectoryListing} instead of collecting them all into a set
+ * first. The tasks hand each path to the consumer through a bounded buffer as
+ * soon as it is found. When the consumer falls behind, the buffer fills up and
+ * the tasks have to wait, so memory use stays flat no matter how many paths
+ * there are. (Only directories still waiting to be listed take up space in the
+ * work queue, and there are usually far fewer directories than files.)
+ *
+ * Note: Make sure to close the stream (for example with a try-with-resources
+ * block) if it is not fully consumed. Otherwise, the tasks will wait for space
+ * in the buffer forever!
+ *
+ * @see WorkQueueDirectoryListing
+ */
+public class StreamingDirectoryListing {
+
+	/** Logger to use for this class. */
+	private static final Logger log = LogManager.getLogger();
+
+	/** The default number of paths the buffer may hold at once. */
+	public static final int CAPACITY = 1024;
+
+	/**
+	 * Marks the end of the paths in the buffer. Compared by reference, so it
+	 * never matches a real path.
+	 */
+	private static final Path DONE = Path.of("");
+
+	/**
+	 * Returns a stream of the paths within the given path and its
+	 * subdirectories (including the path itself), using a buffer with the
+	 * default capacity.
+	 *
+	 * @param path directory to create listing
+	 * @return stream of paths found within directory and its subdirectories
+	 * @see #stream(Path, int)
+	 */
+	public static Stream<Path> stream(Path path) {
+		return stream(path, CAPACITY);
+	}
+
+	/**
+	 * Returns a stream of the paths within the given path and its
+	 * subdirectories (including the path itself). The paths are found in the
+	 * background as the stream is consumed, in no particular order.
+	 *
+	 * @param path directory to create listing
+	 * @param capacity number of paths the buffer may hold at once; should be
+	 *        larger than the number of worker threads
+	 * @return stream of paths found within directory and its subdirectories
+	 */
+	public static Stream<Path> stream(Path path, int capacity) {
+		return stream(path, ListingFilter.ALL, capacity);
+	}
+
+	/**
+	 * Returns a filtered stream of the paths within the given path and its
+	 * subdirectories, using a buffer with the default capacity.
+	 *
+	 * @param path directory to create listing
+	 * @param filter which paths to include, exclude, and how deep to go
+	 * @return stream of paths found within directory and its subdirectories
+	 * @see #stream(Path, ListingFilter, int)
+	 */
+	public static Stream<Path> stream(Path path, ListingFilter filter) {
+		return stream(path, filter, CAPACITY);
+	}
+
+	/**
+	 * Returns a filtered stream of the paths within the given path and its
+	 * subdirectories. Excluded paths are skipped before tasks are created for
+	 * them, so excluded directories and directories past the maximum depth
+	 * never reach the work queue.
+	 *
+	 * @param path directory to create listing
+	 * @param filter which paths to include, exclude, and how deep to go
+	 * @param capacity number of paths the buffer may hold at once; should be
+	 *        larger than the number of worker threads
+	 * @return stream of paths found within directory and its subdirectories
+	 */
+	public static Stream<Path> stream(Path path, ListingFilter filter, int capacity) {
+		TaskMaster master = new TaskMaster(filter, capacity);
+		master.start(path);
+
+		Spliterator<Path> spliterator = Spliterators.spliteratorUnknownSize(master,
+				Spliterator.DISTINCT | Spliterator.NONNULL);
+
+		return StreamSupport.stream(spliterator, false).onClose(master::close);
+	}
+
+	/**
+	 * A task master that shares the buffer and work queue with its tasks, and
+	 * lets the consumer iterate through the buffer.
+	 */
+	private static class TaskMaster implements Iterator<Path> {
+		/** The paths found but not yet consumed. */
+		private final BlockingQueue<Path> buffer;
+
+		/** Which paths to include, exclude, and how deep to go. */
+		private final ListingFilter filter;
+
+		/** The work queue that will handle all of the tasks. */
+		private final WorkQueue tasks;
+
+		/** The number of directories still being listed. */
+		private final AtomicInteger pending;
+
+		/** Whether the consumer closed the stream early. */
+		private volatile boolean closed;
+
+		/** The next path to return, or {@code null} if not taken yet. */
+		private Path next;
+
+		/**
+		 * Initializes a task master with a buffer of the given capacity.
+		 *
+		 * @param filter which paths to include, exclude, and how deep to go
+		 * @param capacity number of paths the buffer may hold at once
+		 */
+		private TaskMaster(ListingFilter filter, int capacity) {
+			this.buffer = new ArrayBlockingQueue<>(capacity);
+			this.filter = filter;
+			this.tasks = new WorkQueue();
+			this.pending = new AtomicInteger();
+			this.closed = false;
+			this.next = null;
+		}
+
+		/**
+		 * Adds the path itself to the buffer (if it exists and is included), and
+		 * creates the first task if it is a directory. Only workers ever mark the
+		 * end of the paths, since the buffer may be too full for the caller to do
+		 * so without waiting on a consumer that does not exist yet.
+		 *
+		 * @param path directory to create listing
+		 */
+		private void start(Path path) {
+			boolean exists = Files.exists(path);
+
+			if (exists && filter.includes(path)) {
+				buffer.add(path);
+			}
+
+			if (exists && filter.descends(0) && Files.isDirectory(path)) {
+				pending.incrementAndGet();
+				tasks.execute(new Task(path, 0));
+			}
+			else {
+				tasks.execute(this::finish);
+			}
+		}
+
+		/**
+		 * Marks the end of the paths, and lets the workers exit. Must be called
+		 * by a worker, since it waits for space in the buffer.
+		 */
+		private void finish() {
+			try {
+				if (!closed) {
+					buffer.put(DONE);
+				}
+			}
+			catch (InterruptedException ex) {
+				log.catching(Level.DEBUG, ex);
+			}
+
+			tasks.shutdown();
+		}
+
+		/**
+		 * Stops listing directories early. Any tasks waiting for space in the
+		 * buffer will find it, and then notice there is nothing left to do.
+		 */
+		private void close() {
+			closed = true;
+			tasks.shutdownNow();
+
+			// only tasks that checked before closed was set will add anything
+			buffer.clear();
+			log.debug("Listing closed.");
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null) {
+				try {
+					next = buffer.take();
+				}
+				catch (InterruptedException ex) {
+					log.catching(Level.DEBUG, ex);
+					Thread.currentThread().interrupt();
+
+					close();
+					next = DONE;
+				}
+			}
+
+			return next != DONE;
+		}
+
+		@Override
+		public Path next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			Path current = next;
+			next = null;
+			return current;
+		}
+
+		/**
+		 * The non-static task class that will add paths to the buffer of our task
+		 * master instance.
+		 */
+		private class Task implements Runnable {
+			/** The path to list. */
+			private final Path path;
+
+			/** The depth of the path. */
+			private final int depth;
+
+			/**
+			 * Initializes this task.
+			 *
+			 * @param path the path to list
+			 * @param depth the depth of the path
+			 */
+			public Task(Path path, int depth) {
+				this.path = path;
+				this.depth = depth;
+				log.debug("Task for {} created.", path);
+			}
+
+			@Override
+			public void run() {
+				try {
+					list();
+				}
+				finally {
+					log.debug("Task for {} finished.", path);
+
+					// otherwise the consumer would wait for the end of the paths forever
+					if (pending.decrementAndGet() == 0) {
+						finish();
+					}
+				}
+			}
+
+			/**
+			 * Lists the directory, adding paths to the buffer and handing off the
+			 * subdirectories to the work queue.
+			 */
+			private void list() {
+				List<Task> subtasks = new ArrayList<>();
+
+				try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+					for (Path current : stream) {
+						if (closed) {
+							break;
+						}
+
+						// pruned before checking the type or creating a task
+						if (filter.excludes(current)) {
+							continue;
+						}
+
+						// waits here whenever the consumer falls behind
+						if (filter.includes(current)) {
+							buffer.put(current);
+						}
+
+						if (filter.descends(depth + 1) && Files.isDirectory(current)) {
+							subtasks.add(new Task(current, depth + 1));
+						}
+					}
+
+					if (!closed) {
+						// counted before they can finish, so pending never reaches 0 early
+						pending.addAndGet(subtasks.size());
+
+						try {
+							tasks.executeAll(subtasks);
+						}
+						catch (RejectedExecutionException ex) {
+							// closed after we checked, so the subtasks are no longer needed
+							pending.addAndGet(-subtasks.size());
+							log.catching(Level.DEBUG, ex);
+						}
+					}
+				}
+				catch (IOException | DirectoryIteratorException | InterruptedException ex) {
+					log.catching(Level.DEBUG, ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests the directory listing for a generated directory tree.
+	 *
+	 * @param args unused
+	 * @throws IOException if unable to generate or delete the tree
+	 * @see TreeGenerator
+	 */
+	public static void main(String[] args) throws IOException {
+		Path path = Files.createTempDirectory("listing");
+
+		try {
+			Set<Path> expected = TreeGenerator.CI.generate(path);
+
+			try (Stream<Path> stream = stream(path)) {
+				Set<Path> actual = stream.collect(Collectors.toSet());
+				System.out.println(actual.equals(expected));
+			}
+		}
+		finally {
+			TreeGenerator.delete(path);
+		}
+	}
+}
@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Generates synthetic directory trees for benchmarking and testing the
+ * directory listings. The same seed always produces the same tree, so results
+ * do not depend on whatever happens to be on the machine running the code.
+ *
+ * The number of subdirectories and files in each directory varies randomly by
+ * up to half in either direction, so the configured fan-out and file count are
+ * averages. Some files may be replaced by symbolic links to files created
+ * earlier. Links never point to directories, so following them can never
+ * create a cycle.
+ *
+ * For example, to check a listing against a tree in a temporary directory:
+ *
+ * <pre>
+ * Path root = Files.createTempDirectory("listing");
+ * Set&lt;Path&gt; expected = TreeGenerator.CI.generate(root);
+ * System.out.println(WorkQueueDirectoryListing.list(root).equals(expected));
+ * TreeGenerator.delete(root);
+ * </pre>
+ *
+ * Trees can be generated in any file system. Passing a path from an in-memory
+ * file system (such as one created by Jimfs) instead of a temporary directory
+ * keeps disk speed out of the results entirely.
+ */
+public class TreeGenerator {
+
+	/** The seed used by the presets. */
+	public static final long SEED = 42;
+
+	/** A small tree (thousands of paths) that is quick enough to use in CI. */
+	public static final TreeGenerator CI = new TreeGenerator(SEED, 8, 3, 10, 0.05);
+
+	/** A large tree (hundreds of thousands of paths) closer to real workloads. */
+	public static final TreeGenerator PRODUCTION = new TreeGenerator(SEED, 12, 4, 10, 0.05);
+
+	/** The seed for the random number generator. */
+	private final long seed;
+
+	/** The average number of subdirectories in each directory. */
+	private final int fanout;
+
+	/** The number of levels of subdirectories below the root. */
+	private final int depth;
+
+	/** The average number of files in each directory. */
+	private final int files;
+
+	/** The fraction of files that are symbolic links instead. */
+	private final double symlinks;
+
+	/**
+	 * Initializes this generator.
+	 *
+	 * @param seed the seed for the random number generator
+	 * @param fanout the average number of subdirectories in each directory
+	 * @param depth the number of levels of subdirectories below the root
+	 * @param files the average number of files in each directory
+	 * @param symlinks the fraction of files that are symbolic links instead
+	 *        (between 0 and 1)
+	 */
+	public TreeGenerator(long seed, int fanout, int depth, int files, double symlinks) {
+		this.seed = seed;
+		this.fanout = fanout;
+		this.depth = depth;
+		this.files = files;
+		this.symlinks = symlinks;
+	}
+
+	/**
+	 * Generates a tree within the given root directory, creating the root
+	 * directory first if necessary. Returns every path in the tree (including
+	 * the root), which is exactly what a directory listing of the root should
+	 * return if the root was empty beforehand.
+	 *
+	 * @param root the directory to generate the tree within
+	 * @return every path in the generated tree
+	 * @throws IOException if unable to create a directory, file, or link
+	 * @throws UnsupportedOperationException if links are requested but not
+	 *         supported by the file system
+	 */
+	public Set<Path> generate(Path root) throws IOException {
+		Random random = new Random(seed);
+		Set<Path> paths = new HashSet<>();
+		List<Path> targets = new ArrayList<>();
+
+		paths.add(Files.createDirectories(root));
+		generate(root, 0, random, paths, targets);
+		return paths;
+	}
+
+	/**
+	 * Recursively generates the files and subdirectories of a directory.
+	 *
+	 * @param directory the directory to fill
+	 * @param level the depth of the directory
+	 * @param random the random number generator
+	 * @param paths every path generated thus far
+	 * @param targets the regular files generated thus far, which links may point
+	 *        to
+	 * @throws IOException if unable to create a directory, file, or link
+	 */
+	private void generate(Path directory, int level, Random random, Set<Path> paths,
+			List<Path> targets) throws IOException {
+		int count = vary(files, random);
+
+		for (int i = 0; i < count; i++) {
+			Path file = directory.resolve("file" + i + ".txt");
+
+			if (!targets.isEmpty() && random.nextDouble() < symlinks) {
+				Path target = targets.get(random.nextInt(targets.size()));
+				Files.createSymbolicLink(file, target.toAbsolutePath());
+			}
+			else {
+				Files.createFile(file);
+				targets.add(file);
+			}
+
+			paths.add(file);
+		}
+
+		if (level < depth) {
+			count = vary(fanout, random);
+
+			for (int i = 0; i < count; i++) {
+				Path subdirectory = Files.createDirectory(directory.resolve("dir" + i));
+				paths.add(subdirectory);
+				generate(subdirectory, level + 1, random, paths, targets);
+			}
+		}
+	}
+
+	/**
+	 * Randomly varies a number by up to half in either direction, keeping the
+	 * same average.
+	 *
+	 * @param average the average number
+	 * @param random the random number generator
+	 * @return number between {@code average - average / 2} and
+	 *         {@code average + average / 2}
+	 */
+	private static int vary(int average, Random random) {
+		int half = average / 2;
+		return average - half + random.nextInt(2 * half + 1);
+	}
+
+	/**
+	 * Deletes a directory and everything within it (without following links).
+	 *
+	 * @param root the directory to delete
+	 * @throws IOException if unable to delete a path
+	 */
+	public static void delete(Path root) throws IOException {
+		try (Stream<Path> paths = Files.walk(root)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+				try {
+					Files.delete(path);
+				}
+				catch (IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+			});
+		}
+		catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("seed %d, fan-out %d, depth %d, %d files, %.0f%% links", seed,
+				fanout, depth, files, symlinks * 100);
+	}
+
+	/**
+	 * Generates the CI tree in a temporary directory, and checks that the serial
+	 * listing finds exactly the generated paths.
+	 *
+	 * @param args unused
+	 * @throws IOException if unable to generate or delete the tree
+	 */
+	public static void main(String[] args) throws IOException {
+		Path root = Files.createTempDirectory("listing");
+
+		try {
+			Set<Path> expected = CI.generate(root);
+			System.out.printf("%s: %d paths%n", CI, expected.size());
+			System.out.println(SerialDirectoryListing.list(root).equals(expected));
+		}
+		finally {
+			delete(root);
+		}
+	}
+}
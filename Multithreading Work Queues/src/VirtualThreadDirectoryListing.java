@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This class revisits the one-thread-per-directory approach of
+ * {@link MultithreadedDirectoryListing}, except each task runs in its own
+ * virtual thread instead. Virtual threads are cheap to create and block, so
+ * this approach does not suffer from the same overhead as creating so many
+ * platform threads. Otherwise, it works the same as
+ * {@link WorkQueueDirectoryListing}.
+ *
+ * Note: Virtual threads require Java 21 or newer. On older versions of Java,
+ * this falls back to one platform thread per directory.
+ *
+ * @see WorkQueue#newVirtualThreadQueue()
+ */
+public class VirtualThreadDirectoryListing {
+
+	/** Logger to use for this class. */
+	private static final Logger log = LogManager.getLogger();
+
+	/**
+	 * Returns a directory listing for the given path.
+	 *
+	 * @param path directory to create listing
+	 * @return paths found within directory and its subdirectories
+	 */
+	public static Set<Path> list(Path path) {
+		return list(path, ListingFilter.ALL);
+	}
+
+	/**
+	 * Returns a filtered directory listing for the given path. Excluded paths are
+	 * skipped before tasks are created for them, so no virtual threads are ever
+	 * started for excluded directories or directories past the maximum depth.
+	 *
+	 * @param path directory to create listing
+	 * @param filter which paths to include, exclude, and how deep to go
+	 * @return paths found within directory and its subdirectories
+	 */
+	public static Set<Path> list(Path path, ListingFilter filter) {
+		HashSet<Path> paths = new HashSet<>();
+
+		if (Files.exists(path)) {
+			if (filter.includes(path)) {
+				paths.add(path);
+			}
+
+			if (filter.descends(0) && Files.isDirectory(path)) {
+				TaskMaster master = new TaskMaster(paths, filter);
+				master.start(path);
+
+				try {
+					master.join();
+				}
+				catch (InterruptedException ex) {
+					log.catching(Level.DEBUG, ex);
+				}
+
+				master.tasks.shutdown();
+			}
+		}
+
+		return paths;
+	}
+
+	/**
+	 * Instead of a static worker class, we will create a task master that can
+	 * share the paths and work queue with its tasks.
+	 */
+	private static class TaskMaster {
+		/** The set of all paths found, only updated once all tasks finish. */
+		private final Set<Path> paths;
+
+		/** The paths found by each task, merged into the set of paths in join(). */
+		private final ConcurrentLinkedQueue<List<Path>> results;
+
+		/** Which paths to include, exclude, and how deep to go. */
+		private final ListingFilter filter;
+
+		/** The work queue that will run each task in its own virtual thread. */
+		private final WorkQueue tasks;
+
+		/**
+		 * Initializes a task master given a set of paths.
+		 *
+		 * @param paths the set of shared paths to populate
+		 * @param filter which paths to include, exclude, and how deep to go
+		 */
+		private TaskMaster(Set<Path> paths, ListingFilter filter) {
+			this.paths = paths;
+			this.results = new ConcurrentLinkedQueue<>();
+			this.filter = filter;
+			this.tasks = WorkQueue.newVirtualThreadQueue();
+		}
+
+		/**
+		 * Creates the first task and gives it to the work queue.
+		 *
+		 * @param path directory to create listing
+		 */
+		private void start(Path path) {
+			tasks.execute(new Task(path, 0));
+		}
+
+		/**
+		 * The non-static task class that will add its results to our task master
+		 * instance.
+		 */
+		private class Task implements Runnable {
+			/** The path to add or list. */
+			private final Path path;
+
+			/** The depth of the path. */
+			private final int depth;
+
+			/**
+			 * Initializes this task.
+			 *
+			 * @param path the path to add or list
+			 * @param depth the depth of the path
+			 */
+			public Task(Path path, int depth) {
+				this.path = path;
+				this.depth = depth;
+				log.debug("Task for {} created.", path);
+			}
+
+			@Override
+			public void run() {
+				// every path in a directory is unique, so no need for a set here
+				List<Path> local = new ArrayList<>();
+
+				try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+					for (Path current : stream) {
+						// pruned before checking the type or creating a task
+						if (filter.excludes(current)) {
+							continue;
+						}
+
+						if (filter.includes(current)) {
+							local.add(current);
+						}
+
+						if (filter.descends(depth + 1) && Files.isDirectory(current)) {
+							tasks.execute(new Task(current, depth + 1));
+						}
+					}
+
+					// lock-free, so tasks never wait on each other to add results
+					results.add(local);
+				}
+				catch (IOException ex) {
+					log.catching(Level.DEBUG, ex);
+				}
+
+				log.debug("Task for {} finished.", path);
+			}
+		}
+
+		/**
+		 * Rather than having threads wait for each other (undoing our multithreading),
+		 * we will wait until all pending work is completed.
+		 *
+		 * @throws InterruptedException
+		 */
+		private void join() throws InterruptedException {
+			log.debug("Waiting for work...");
+			tasks.finish();
+			log.debug("Work finished.");
+
+			// only this thread is using the set at this point, so no locking needed
+			for (List<Path> result : results) {
+				paths.addAll(result);
+			}
+		}
+	}
+
+	/**
+	 * Tests the directory listing for a generated directory tree.
+	 *
+	 * @param args unused
+	 * @throws IOException if unable to generate or delete the tree
+	 * @see TreeGenerator
+	 */
+	public static void main(String[] args) throws IOException {
+		Path path = Files.createTempDirectory("listing");
+
+		try {
+			Set<Path> expected = TreeGenerator.CI.generate(path);
+			Set<Path> actual = list(path);
+
+			System.out.println(actual.equals(expected));
+		}
+		finally {
+			TreeGenerator.delete(path);
+		}
+	}
+}
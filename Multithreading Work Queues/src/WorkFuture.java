@@ -0,0 +1,271 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * The result of a {@link Callable} submitted to a {@link WorkQueue}. This is a
+ * much simpler version of {@link java.util.concurrent.FutureTask} that also
+ * supports completion callbacks, so the thread that submitted the work does not
+ * have to wait around for the result.
+ *
+ * Cancelling work that has not started yet does not remove it from the work
+ * queue. Instead, the worker that eventually takes the work will skip it.
+ *
+ * @param <T> the type of result returned by the work
+ * @see WorkQueue#submit(Callable)
+ * @see WorkQueue#invokeAll(java.util.Collection)
+ */
+public class WorkFuture<T> implements Future<T>, Runnable {
+
+	/** The work has not started yet. */
+	private static final int NEW = 0;
+
+	/** The work is being run by some thread. */
+	private static final int RUNNING = 1;
+
+	/** The work returned a result or threw an exception. */
+	private static final int COMPLETED = 2;
+
+	/** The work was cancelled before it completed. */
+	private static final int CANCELLED = 3;
+
+	/** The work to run. */
+	private final Callable<T> task;
+
+	/** The current state of the work (only moves forward). */
+	private final AtomicInteger state;
+
+	/** The thread running the work, if any. Protected by this object. */
+	private Thread runner;
+
+	/** The result of the work. Protected by this object. */
+	private T result;
+
+	/** The exception thrown by the work, if any. Protected by this object. */
+	private Throwable failure;
+
+	/** Called once the work is done. Protected by this object. */
+	private List<BiConsumer<? super T, ? super Throwable>> callbacks;
+
+	/**
+	 * Initializes this future. Only work queues create futures, which is why
+	 * this constructor is not public.
+	 *
+	 * @param task the work to run
+	 */
+	WorkFuture(Callable<T> task) {
+		this.task = task;
+		this.state = new AtomicInteger(NEW);
+		this.callbacks = new ArrayList<>();
+	}
+
+	/**
+	 * Runs the work and stores its result, unless the work was cancelled or
+	 * already started by another thread.
+	 */
+	@Override
+	public void run() {
+		if (!state.compareAndSet(NEW, RUNNING)) {
+			return;
+		}
+
+		synchronized (this) {
+			runner = Thread.currentThread();
+		}
+
+		T value = null;
+		Throwable thrown = null;
+
+		try {
+			value = task.call();
+		}
+		catch (Throwable ex) {
+			// includes errors, otherwise anyone waiting would wait forever (the
+			// error is reported by the future instead of killing the worker)
+			thrown = ex;
+		}
+
+		synchronized (this) {
+			runner = null;
+
+			// clear any interrupt meant for this work so it does not leak into the
+			// next work request run by this thread
+			if (state.get() == CANCELLED) {
+				Thread.interrupted();
+			}
+		}
+
+		if (state.compareAndSet(RUNNING, COMPLETED)) {
+			complete(value, thrown);
+		}
+	}
+
+	/**
+	 * Attempts to cancel the work. Work that has not started yet will never run.
+	 * Work that is already running is only interrupted if requested, but its
+	 * result will be ignored either way.
+	 *
+	 * @param mayInterruptIfRunning whether to interrupt the thread running the
+	 *        work
+	 * @return false if the work was already done, true otherwise
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (!state.compareAndSet(NEW, CANCELLED)) {
+				if (!state.compareAndSet(RUNNING, CANCELLED)) {
+					return false;
+				}
+
+				if (mayInterruptIfRunning && runner != null) {
+					runner.interrupt();
+				}
+			}
+		}
+
+		complete(null, new CancellationException());
+		return true;
+	}
+
+	/**
+	 * Stores the outcome of the work, wakes up any threads waiting for it, and
+	 * then runs the callbacks. Only called once the state is final.
+	 *
+	 * @param value the result of the work
+	 * @param thrown the exception thrown by the work, or {@code null} if none
+	 */
+	private void complete(T value, Throwable thrown) {
+		List<BiConsumer<? super T, ? super Throwable>> waiting;
+
+		synchronized (this) {
+			result = value;
+			failure = thrown;
+
+			waiting = callbacks;
+			callbacks = null;
+
+			// every waiting thread wants this result, so wake them all up
+			this.notifyAll();
+		}
+
+		for (BiConsumer<? super T, ? super Throwable> callback : waiting) {
+			call(callback);
+		}
+	}
+
+	/**
+	 * Calls the provided callback with the outcome of the work. Runtime
+	 * exceptions are caught so one bad callback does not prevent the others from
+	 * running.
+	 *
+	 * @param callback the callback to call
+	 */
+	private void call(BiConsumer<? super T, ? super Throwable> callback) {
+		try {
+			callback.accept(result, failure);
+		}
+		catch (RuntimeException ex) {
+			System.err.println("Warning: Work future encountered an exception in a callback.");
+		}
+	}
+
+	/**
+	 * Adds a callback to call once the work is done. The callback is given the
+	 * result of the work and {@code null}, or {@code null} and the exception
+	 * thrown by the work (a {@link CancellationException} if the work was
+	 * cancelled). If the work is already done, the callback is called right away
+	 * by the current thread. Otherwise, it is called by the thread that finishes
+	 * (or cancels) the work.
+	 *
+	 * @param callback the callback to call once the work is done
+	 * @return this future
+	 */
+	public WorkFuture<T> whenComplete(BiConsumer<? super T, ? super Throwable> callback) {
+		synchronized (this) {
+			if (callbacks != null) {
+				callbacks.add(callback);
+				return this;
+			}
+		}
+
+		call(callback);
+		return this;
+	}
+
+	/**
+	 * Waits until the work is done, without reporting its outcome.
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	synchronized void await() throws InterruptedException {
+		while (callbacks != null) {
+			this.wait();
+		}
+	}
+
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		synchronized (this) {
+			await();
+			return report();
+		}
+	}
+
+	@Override
+	public T get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		synchronized (this) {
+			long remaining = deadline - System.nanoTime();
+
+			while (callbacks != null) {
+				if (remaining <= 0) {
+					throw new TimeoutException();
+				}
+
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				remaining = deadline - System.nanoTime();
+			}
+
+			return report();
+		}
+	}
+
+	/**
+	 * Returns the result of the work, or throws the appropriate exception. Must
+	 * be called while synchronized after the work is done.
+	 *
+	 * @return the result of the work
+	 * @throws ExecutionException if the work threw an exception
+	 * @throws CancellationException if the work was cancelled
+	 */
+	private T report() throws ExecutionException {
+		if (state.get() == CANCELLED) {
+			throw new CancellationException();
+		}
+
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+
+		return result;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return state.get() == CANCELLED;
+	}
+
+	@Override
+	public boolean isDone() {
+		return state.get() >= COMPLETED;
+	}
+}
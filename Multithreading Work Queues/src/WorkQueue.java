@@ -1,9 +1,63 @@
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A simple work queue implementation based on the IBM developerWorks article by
- * Brian Goetz. It is up to the user of this class to keep track of whether
- * there is any pending work remaining.
+ * Brian Goetz. The work queue also keeps track of how much pending (or
+ * unfinished) work remains, so users may call {@link #finish()} to wait for all
+ * of the work to be completed. Work that returns a result may be submitted
+ * with {@link #submit(Callable)} instead, which returns a {@link WorkFuture}.
+ *
+ * By default, the work queue uses work stealing. Each worker has its own
+ * deque, and any work submitted from within a worker thread is placed on that
+ * worker's deque instead of the shared queue. Workers that run out of work will
+ * take work from the shared queue or steal work from the other workers before
+ * waiting. This avoids having every worker fight over a single lock when tasks
+ * create more tasks (like our directory listing tasks do).
+ *
+ * The work queue may also be bounded, in which case only a fixed number of work
+ * requests may be waiting at once. What happens to work added to a full queue
+ * depends on the {@link RejectionPolicy} used.
+ *
+ * Instead of calling {@link Object#notifyAll()} and waking up every waiting
+ * thread (only one of which can actually make progress), the work queue uses
+ * separate {@link Condition} objects for each reason a thread may wait and
+ * only signals as many threads as there is new work or space for.
+ *
+ * The work queue may also be elastic, in which case it starts with a minimum
+ * number of workers and adds more (up to a maximum) whenever work piles up
+ * faster than the workers can take it. Workers that stay idle for longer than
+ * the keep-alive time exit again, so quiet periods only use a few threads.
+ *
+ * The work queue may also schedule work by priority and deadline instead of
+ * first-come first-served, so small latency-critical work does not have to wait
+ * behind thousands of other work requests. See {@link #newPriorityQueue(int)}
+ * for details.
+ *
+ * Finally, the work queue may skip the pool of workers entirely and run each
+ * work request in its own new thread instead. This is only a good idea when
+ * threads are cheap to create, like the virtual threads in newer versions of
+ * Java. See {@link #newVirtualThreadQueue()} for details.
  *
  * @see <a href="http://www.ibm.com/developerworks/library/j-jtp0730/index.html">Java
  *      Theory and Practice: Thread Pools and Work Queues</a>
@@ -12,19 +66,163 @@ public class WorkQueue {
 
 	/**
 	 * Pool of worker threads that will wait in the background until work is
-	 * available.
+	 * available. The array is replaced (never modified) while holding the lock
+	 * whenever workers are added or removed, so it may be read without locking.
 	 */
-	private final PoolWorker[] workers;
+	private volatile PoolWorker[] workers;
+
+	/** Minimum number of workers to keep around, even when idle. */
+	private final int min;
+
+	/** Maximum number of workers (the same as the minimum unless elastic). */
+	private final int max;
+
+	/** Nanoseconds an extra worker may stay idle before exiting. */
+	private final long keepAlive;
 
 	/** Queue of pending work requests. */
-	private final LinkedList<Runnable> queue;
+	private final Queue<Runnable> queue;
+
+	/**
+	 * Latency from submission until work starts for each priority, or
+	 * {@code null} if work is not scheduled by priority.
+	 */
+	private final LatencyHistogram[] latency;
+
+	/** The number of work requests started after their deadline. */
+	private final LongAdder late;
+
+	/** Used to run work with the same deadline in the order it was added. */
+	private final AtomicLong sequence;
+
+	/** Protects the shared queue and is used by all waiting threads. */
+	private final ReentrantLock lock;
+
+	/** Signaled when there is work for workers waiting for work. */
+	private final Condition notEmpty;
+
+	/** Signaled when there is space for threads waiting on a full queue. */
+	private final Condition notFull;
+
+	/** Signaled when there is no more pending work. */
+	private final Condition finished;
+
+	/** Whether workers have their own deques and steal work from each other. */
+	private final boolean stealing;
+
+	/** Creates a thread per work request, or {@code null} if using workers. */
+	private final ThreadFactory perTask;
+
+	/** The work queue a thread-per-task thread is running work for. */
+	private static final ThreadLocal<WorkQueue> perTaskOwner = new ThreadLocal<>();
+
+	/** The number of workers waiting for work. */
+	private final AtomicInteger idle;
+
+	/** The amount of pending (or unfinished) work. */
+	private final AtomicInteger pending;
+
+	/** Maximum number of work requests that may be waiting at once. */
+	private final int capacity;
+
+	/** What to do with work requests when the queue is at capacity. */
+	private final RejectionPolicy policy;
+
+	/** The number of threads waiting for space in a full queue. */
+	private final AtomicInteger blocked;
+
+	/** The number of work requests waiting to be run (the queue depth). */
+	private final AtomicInteger depth;
+
+	/** The largest queue depth seen thus far. */
+	private final AtomicInteger peak;
+
+	/** The number of work requests that were not added to the queue. */
+	private final AtomicLong rejected;
+
+	/** Work requests run by threads that are not (or no longer) workers. */
+	private final LongAdder retiredExecuted;
+
+	/** Work requests that failed in threads that are not (or no longer) workers. */
+	private final LongAdder retiredFailed;
+
+	/** Nanoseconds spent waiting by threads that are not (or no longer) workers. */
+	private final LongAdder retiredWaiting;
+
+	/** Nanoseconds spent running by threads that are not (or no longer) workers. */
+	private final LongAdder retiredRunning;
 
 	/** Used to signal the queue should be shutdown. */
 	private volatile boolean shutdown;
 
+	/** Used to signal the queue should stop without finishing pending work. */
+	private volatile boolean stopped;
+
 	/** The default number of threads to use when not specified. */
 	public static final int DEFAULT = 5;
 
+	/**
+	 * What to do when adding work to a work queue that is already at capacity.
+	 */
+	public static enum RejectionPolicy {
+		/**
+		 * Wait until there is space in the queue. Workers adding work to their own
+		 * queue run the work themselves instead, since otherwise every worker could
+		 * end up waiting on each other.
+		 */
+		BLOCK,
+
+		/** Run the work immediately in the thread that tried to add it. */
+		CALLER_RUNS,
+
+		/** Silently drop the work. */
+		DISCARD,
+
+		/** Throw a {@link RejectedExecutionException}. */
+		ABORT
+	}
+
+	/**
+	 * How urgent work added to a priority work queue is. Work is run in order of
+	 * its deadline, and work without an explicit deadline is given one based on
+	 * its priority. This means lower priority work is never starved: it will
+	 * eventually run before any higher priority work added much later.
+	 *
+	 * @see WorkQueue#newPriorityQueue(int)
+	 */
+	public static enum Priority {
+		/** Latency-critical work, due 1 millisecond after it is added. */
+		HIGH(Duration.ofMillis(1)),
+
+		/** Regular work, due 100 milliseconds after it is added. */
+		NORMAL(Duration.ofMillis(100)),
+
+		/** Background work, due 1 second after it is added. */
+		LOW(Duration.ofSeconds(1));
+
+		/** How long after being added work of this priority is due. */
+		private final Duration slack;
+
+		/**
+		 * Initializes this priority.
+		 *
+		 * @param slack how long after being added work of this priority is due
+		 */
+		private Priority(Duration slack) {
+			this.slack = slack;
+		}
+
+		/**
+		 * Returns how long after being added work of this priority is due when no
+		 * explicit deadline is given.
+		 *
+		 * @return how long until work of this priority is due
+		 */
+		public Duration slack() {
+			return slack;
+		}
+	}
+
 	/**
 	 * Starts a work queue with the default number of threads.
 	 *
@@ -35,102 +233,1538 @@ public class WorkQueue {
 	}
 
 	/**
-	 * Starts a work queue with the specified number of threads.
+	 * Starts a work-stealing work queue with the specified number of threads.
 	 *
 	 * @param threads
 	 *            number of worker threads; should be greater than 1
+	 * @see #WorkQueue(int, boolean)
 	 */
 	public WorkQueue(int threads) {
-		this.queue = new LinkedList<Runnable>();
-		this.workers = new PoolWorker[threads];
+		this(threads, true);
+	}
+
+	/**
+	 * Starts a work queue with the specified number of threads.
+	 *
+	 * @param threads
+	 *            number of worker threads; should be greater than 1
+	 * @param stealing
+	 *            if true, each worker has its own deque and steals work from
+	 *            other workers; otherwise all workers share a single queue
+	 */
+	public WorkQueue(int threads, boolean stealing) {
+		this(threads, stealing, Integer.MAX_VALUE, RejectionPolicy.BLOCK);
+	}
+
+	/**
+	 * Starts a bounded work-stealing work queue with the specified number of
+	 * threads.
+	 *
+	 * @param threads
+	 *            number of worker threads; should be greater than 1
+	 * @param capacity
+	 *            maximum number of work requests that may be waiting at once
+	 * @param policy
+	 *            what to do with work requests when the queue is at capacity
+	 * @see #WorkQueue(int, boolean, int, RejectionPolicy)
+	 */
+	public WorkQueue(int threads, int capacity, RejectionPolicy policy) {
+		this(threads, true, capacity, policy);
+	}
+
+	/**
+	 * Starts a bounded work queue with the specified number of threads.
+	 *
+	 * @param threads
+	 *            number of worker threads; should be greater than 1
+	 * @param stealing
+	 *            if true, each worker has its own deque and steals work from
+	 *            other workers; otherwise all workers share a single queue
+	 * @param capacity
+	 *            maximum number of work requests that may be waiting at once;
+	 *            should be positive
+	 * @param policy
+	 *            what to do with work requests when the queue is at capacity
+	 */
+	public WorkQueue(int threads, boolean stealing, int capacity, RejectionPolicy policy) {
+		this(threads, threads, 0, stealing, capacity, policy, null, false);
+	}
+
+	/**
+	 * Starts an elastic work-stealing work queue. The queue starts with the
+	 * minimum number of threads, and adds another thread whenever more work is
+	 * waiting than there are threads to run it and none of the threads are idle.
+	 * Any thread beyond the minimum exits after being idle for the keep-alive
+	 * time.
+	 *
+	 * @param min
+	 *            minimum number of worker threads; should be at least 1
+	 * @param max
+	 *            maximum number of worker threads; should be at least min
+	 * @param keepAlive
+	 *            how long extra worker threads may stay idle before exiting
+	 */
+	public WorkQueue(int min, int max, Duration keepAlive) {
+		this(min, max, keepAlive.toNanos(), true, Integer.MAX_VALUE, RejectionPolicy.BLOCK, null,
+				false);
+	}
+
+	/**
+	 * Starts a work queue without any worker threads. Instead, every work request
+	 * is run in its own new thread created by the provided factory.
+	 *
+	 * @param factory
+	 *            creates a new thread for each work request
+	 * @see #newVirtualThreadQueue()
+	 */
+	public WorkQueue(ThreadFactory factory) {
+		this(0, 0, 0, false, Integer.MAX_VALUE, RejectionPolicy.BLOCK, factory, false);
+	}
+
+	/**
+	 * Initializes the work queue and starts any worker threads.
+	 *
+	 * @param min
+	 *            number of worker threads to start with
+	 * @param max
+	 *            maximum number of worker threads
+	 * @param keepAlive
+	 *            nanoseconds extra worker threads may stay idle
+	 * @param stealing
+	 *            whether workers steal work from each other
+	 * @param capacity
+	 *            maximum number of work requests that may be waiting at once
+	 * @param policy
+	 *            what to do with work requests when the queue is at capacity
+	 * @param perTask
+	 *            creates a thread per work request, or {@code null} if using
+	 *            worker threads
+	 * @param prioritized
+	 *            whether to run work in order of deadline instead of the order
+	 *            it was added
+	 */
+	private WorkQueue(int min, int max, long keepAlive, boolean stealing, int capacity,
+			RejectionPolicy policy, ThreadFactory perTask, boolean prioritized) {
+		this.queue = prioritized ? new PriorityQueue<Runnable>() : new LinkedList<Runnable>();
+		this.latency = prioritized ? new LatencyHistogram[Priority.values().length] : null;
+		this.late = new LongAdder();
+		this.sequence = new AtomicLong();
+
+		if (prioritized) {
+			for (int i = 0; i < latency.length; i++) {
+				latency[i] = new LatencyHistogram();
+			}
+		}
+
+		this.lock = new ReentrantLock();
+		this.notEmpty = lock.newCondition();
+		this.notFull = lock.newCondition();
+		this.finished = lock.newCondition();
+		this.workers = new PoolWorker[min];
+		this.min = min;
+		this.max = max;
+		this.keepAlive = max > min ? keepAlive : 0;
+		this.stealing = stealing;
+		this.perTask = perTask;
+		this.idle = new AtomicInteger();
+		this.pending = new AtomicInteger();
+
+		this.capacity = capacity;
+		this.policy = policy;
+		this.blocked = new AtomicInteger();
+		this.depth = new AtomicInteger();
+		this.peak = new AtomicInteger();
+		this.rejected = new AtomicLong();
+
+		this.retiredExecuted = new LongAdder();
+		this.retiredFailed = new LongAdder();
+		this.retiredWaiting = new LongAdder();
+		this.retiredRunning = new LongAdder();
 
 		shutdown = false;
+		stopped = false;
 
-		// start the threads so they are waiting in the background
-		for (int i = 0; i < threads; i++) {
+		// create all the workers first so they can find each other when stealing
+		for (int i = 0; i < min; i++) {
 			workers[i] = new PoolWorker();
+		}
+
+		// start the threads so they are waiting in the background
+		for (int i = 0; i < min; i++) {
 			workers[i].start();
 		}
 	}
 
 	/**
 	 * Adds a work request to the queue. A thread will process this request when
-	 * available.
+	 * available. If the queue is at capacity, the {@link RejectionPolicy} of this
+	 * queue decides what happens to the request instead.
 	 *
 	 * @param r work request (in the form of a {@link Runnable} object)
+	 * @throws RejectedExecutionException if the queue is full and the policy is
+	 *         {@link RejectionPolicy#ABORT}, if interrupted while waiting for
+	 *         space, or if the queue has been shutdown
 	 */
 	public void execute(Runnable r) {
-		synchronized (queue) {
-			queue.addLast(r);
-			queue.notifyAll();
-		}
+		execute(r, Priority.NORMAL);
 	}
 
 	/**
-	 * Asks the queue to shutdown. Any unprocessed work will not be finished,
-	 * but threads in-progress will not be interrupted.
+	 * Adds a work request with the provided priority to the queue. The priority
+	 * is ignored unless this is a priority work queue.
+	 *
+	 * @param r work request (in the form of a {@link Runnable} object)
+	 * @param priority how urgent the work request is
+	 * @throws RejectedExecutionException if the queue is full and the policy is
+	 *         {@link RejectionPolicy#ABORT}, if interrupted while waiting for
+	 *         space, or if the queue has been shutdown
+	 * @see #newPriorityQueue(int)
 	 */
-	public void shutdown() {
-		// safe to do unsynchronized due to volatile keyword
-		shutdown = true;
+	public void execute(Runnable r, Priority priority) {
+		execute(r, priority, priority.slack());
+	}
 
-		synchronized (queue) {
-			queue.notifyAll();
-		}
+	/**
+	 * Adds a work request with the provided priority and deadline to the queue.
+	 * The priority and deadline are ignored unless this is a priority work queue.
+	 *
+	 * @param r work request (in the form of a {@link Runnable} object)
+	 * @param priority how urgent the work request is (only used for tracking
+	 *        latency when a deadline is given)
+	 * @param deadline how long from now the work request should be started by
+	 * @throws RejectedExecutionException if the queue is full and the policy is
+	 *         {@link RejectionPolicy#ABORT}, if interrupted while waiting for
+	 *         space, or if the queue has been shutdown
+	 * @see #newPriorityQueue(int)
+	 */
+	public void execute(Runnable r, Priority priority, Duration deadline) {
+		admit(1);
+		add(latency == null ? r : new Scheduled(r, priority, deadline.toNanos()));
 	}
 
 	/**
-	 * Returns the number of worker threads being used by the work queue.
+	 * Adds a work request that was already counted as pending work to the queue,
+	 * or handles it with the {@link RejectionPolicy} of this queue if the queue
+	 * is at capacity.
 	 *
-	 * @return number of worker threads
+	 * @param r work request (in the form of a {@link Runnable} object)
 	 */
-	public int size() {
-		return workers.length;
+	private void add(Runnable r) {
+		if (perTask != null) {
+			// nothing waits in the queue, so no capacity to worry about
+			perTask.newThread(() -> {
+				perTaskOwner.set(this);
+
+				long start = System.nanoTime();
+				boolean success = runTask(r);
+				retire(1, success ? 0 : 1, 0, System.nanoTime() - start);
+			}).start();
+			return;
+		}
+
+		if (reserve(1) == 0) {
+			boolean queued = false;
+
+			try {
+				queued = reject(r);
+			}
+			finally {
+				// the work was either already run, dropped, or refused
+				if (!queued) {
+					decrementPending();
+				}
+			}
+
+			if (!queued) {
+				return;
+			}
+		}
+
+		PoolWorker worker = stealing ? currentWorker() : null;
+
+		if (worker != null) {
+			// no locking necessary to add work to our own deque
+			worker.local.addFirst(r);
+
+			// only bother waking someone up if a worker is waiting
+			if (idle.get() > 0) {
+				lock.lock();
+
+				try {
+					notEmpty.signal();
+				}
+				finally {
+					lock.unlock();
+				}
+			}
+		}
+		else {
+			lock.lock();
+
+			try {
+				queue.add(r);
+
+				// only one worker can take this work, so only wake up one worker
+				notEmpty.signal();
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+
+		grow();
 	}
 
 	/**
-	 * Waits until work is available in the work queue. When work is found, will
-	 * remove the work from the queue and run it. If a shutdown is detected, will
-	 * exit instead of grabbing new work from the queue. These threads will
-	 * continue running in the background until a shutdown is requested.
+	 * Adds another worker if this queue is elastic, there is more work waiting
+	 * than there are workers, and none of the workers are idle. Only locks when
+	 * a worker is likely to be added.
 	 */
-	private class PoolWorker extends Thread {
+	private void grow() {
+		PoolWorker[] current = workers;
 
-		@Override
-		public void run() {
-			Runnable r = null;
+		if (current.length >= max || idle.get() > 0 || depth.get() <= current.length) {
+			return;
+		}
 
-			while (true) {
-				synchronized (queue) {
-					while (queue.isEmpty() && !shutdown) {
-						try {
-							queue.wait();
-						}
-						catch (InterruptedException ex) {
-							System.err.println("Warning: Work queue interrupted while waiting.");
-							Thread.currentThread().interrupt();
-						}
-					}
+		lock.lock();
+
+		try {
+			current = workers;
+
+			// someone else may have added a worker or shutdown the queue already
+			if (current.length < max && !shutdown && depth.get() > current.length) {
+				PoolWorker worker = new PoolWorker();
+				PoolWorker[] larger = Arrays.copyOf(current, current.length + 1);
+				larger[current.length] = worker;
+
+				workers = larger;
+				worker.start();
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
 
-					// exit while for one of two reasons:
-					// (a) queue has work, or (b) shutdown has been called
+	/**
+	 * Adds several work requests to the queue at once. Unlike calling
+	 * {@link #execute(Runnable)} for each request, this only locks the queue
+	 * once for the entire batch and only wakes up as many workers as there are
+	 * new work requests. Any requests that do not fit in the queue are handled
+	 * one at a time by the {@link RejectionPolicy} of this queue.
+	 *
+	 * @param batch work requests (in the form of {@link Runnable} objects)
+	 * @throws RejectedExecutionException if the queue is full and the policy is
+	 *         {@link RejectionPolicy#ABORT}, if interrupted while waiting for
+	 *         space, or if the queue has been shutdown
+	 * @see #execute(Runnable)
+	 */
+	public void executeAll(Collection<? extends Runnable> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		admit(batch.size());
+
+		if (latency != null) {
+			List<Runnable> scheduled = new ArrayList<>(batch.size());
+
+			for (Runnable r : batch) {
+				scheduled.add(new Scheduled(r, Priority.NORMAL, Priority.NORMAL.slack().toNanos()));
+			}
+
+			batch = scheduled;
+		}
+
+		Iterator<? extends Runnable> iterator = batch.iterator();
+		int reserved = perTask == null ? reserve(batch.size()) : 0;
+
+		if (reserved > 0) {
+			PoolWorker worker = stealing ? currentWorker() : null;
+
+			if (worker != null) {
+				for (int i = 0; i < reserved; i++) {
+					worker.local.addFirst(iterator.next());
+				}
+
+				// wake up at most one idle worker per new work request
+				int wake = Math.min(idle.get(), reserved);
+
+				if (wake > 0) {
+					lock.lock();
 
-					if (shutdown) {
-						break;
+					try {
+						for (int i = 0; i < wake; i++) {
+							notEmpty.signal();
+						}
 					}
-					else {
-						r = queue.removeFirst();
+					finally {
+						lock.unlock();
 					}
 				}
+			}
+			else {
+				lock.lock();
 
 				try {
-					r.run();
+					for (int i = 0; i < reserved; i++) {
+						queue.add(iterator.next());
+					}
+
+					// extra signals are harmless if fewer workers are waiting
+					for (int i = 0; i < Math.min(reserved, workers.length); i++) {
+						notEmpty.signal();
+					}
+				}
+				finally {
+					lock.unlock();
+				}
+			}
+
+			grow();
+		}
+
+		// anything left over did not fit (or there is no queue to put it in)
+		int remaining = batch.size() - reserved;
+
+		try {
+			while (iterator.hasNext()) {
+				remaining--;
+				add(iterator.next());
+			}
+		}
+		finally {
+			// the rest of the batch was counted as pending but will never run
+			if (remaining > 0) {
+				decrementPending(remaining);
+			}
+		}
+	}
+
+	/**
+	 * Adds work that returns a result to the queue, and returns a future that
+	 * may be used to get that result, cancel the work, or add callbacks for when
+	 * the work is done.
+	 *
+	 * @param <T> the type of result returned by the work
+	 * @param task work request (in the form of a {@link Callable} object)
+	 * @return the future result of the work
+	 * @throws RejectedExecutionException if the queue is full and the policy is
+	 *         {@link RejectionPolicy#ABORT}, if interrupted while waiting for
+	 *         space, or if the queue has been shutdown
+	 * @see #execute(Runnable)
+	 */
+	public <T> WorkFuture<T> submit(Callable<T> task) {
+		return submit(task, Priority.NORMAL);
+	}
+
+	/**
+	 * Adds work that returns a result with the provided priority to the queue.
+	 * The priority is ignored unless this is a priority work queue.
+	 *
+	 * @param <T> the type of result returned by the work
+	 * @param task work request (in the form of a {@link Callable} object)
+	 * @param priority how urgent the work request is
+	 * @return the future result of the work
+	 * @throws RejectedExecutionException if the queue is full and the policy is
+	 *         {@link RejectionPolicy#ABORT}, if interrupted while waiting for
+	 *         space, or if the queue has been shutdown
+	 * @see #submit(Callable)
+	 */
+	public <T> WorkFuture<T> submit(Callable<T> task, Priority priority) {
+		WorkFuture<T> future = new WorkFuture<>(task);
+		execute(future, priority);
+		return future;
+	}
+
+	/**
+	 * Adds several work requests that return results to the queue at once, and
+	 * waits until all of them are done. Each future returned will either have a
+	 * result, an exception, or be cancelled.
+	 *
+	 * If called by a thread already running work for this queue, the thread will
+	 * run any work that has not been started yet itself instead of waiting for
+	 * it. Otherwise, every thread running work could end up waiting on work that
+	 * nobody is left to run.
+	 *
+	 * @param <T> the type of result returned by the work
+	 * @param tasks work requests (in the form of {@link Callable} objects)
+	 * @return the futures for each work request, in the same order
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws RejectedExecutionException if the queue is full and the policy is
+	 *         {@link RejectionPolicy#ABORT}, if interrupted while waiting for
+	 *         space, or if the queue has been shutdown
+	 * @see #executeAll(Collection)
+	 */
+	public <T> List<WorkFuture<T>> invokeAll(Collection<? extends Callable<T>> tasks)
+			throws InterruptedException {
+		List<WorkFuture<T>> futures = new ArrayList<>(tasks.size());
+
+		for (Callable<T> task : tasks) {
+			futures.add(new WorkFuture<>(task));
+		}
+
+		executeAll(futures);
+
+		boolean helping = currentWorker() != null || perTaskOwner.get() == this;
+
+		for (WorkFuture<T> future : futures) {
+			if (helping) {
+				// does nothing if the work was already started or cancelled
+				future.run();
+			}
+
+			future.await();
+		}
+
+		return futures;
+	}
+
+	/**
+	 * Asks the queue to shutdown. No new work will be accepted, except for work
+	 * added by work already in the queue (so a task that creates more tasks can
+	 * still finish). The workers will finish all of the pending work before
+	 * exiting, but this method does not wait for that to happen.
+	 *
+	 * @see #awaitTermination(Duration)
+	 * @see #shutdownNow()
+	 */
+	public void shutdown() {
+		// safe to do unsynchronized due to volatile keyword
+		shutdown = true;
+
+		// everyone waiting needs to find out about the shutdown
+		lock.lock();
+
+		try {
+			notEmpty.signalAll();
+			notFull.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Asks the queue to shutdown without finishing the pending work. No new work
+	 * will be accepted, and any work that has not been started yet is removed
+	 * from the queue and returned. Work already in-progress will not be
+	 * interrupted.
+	 *
+	 * @return the work requests that were never started
+	 * @see #awaitTermination(Duration)
+	 */
+	public List<Runnable> shutdownNow() {
+		List<Runnable> unfinished = new ArrayList<>();
+
+		lock.lock();
+
+		try {
+			shutdown = true;
+			stopped = true;
+
+			// in the order the work would have run (which matters for priority queues)
+			Runnable next = queue.poll();
+
+			while (next != null) {
+				unfinished.add(next instanceof Scheduled ? ((Scheduled) next).task : next);
+				next = queue.poll();
+			}
+
+			// oldest work first, just like the shared queue
+			for (PoolWorker worker : workers) {
+				Runnable r = worker.local.pollLast();
+
+				while (r != null) {
+					unfinished.add(r);
+					r = worker.local.pollLast();
 				}
-				catch (RuntimeException ex) {
-					// catch runtime exceptions to avoid leaking threads
-					System.err.println("Warning: Work queue encountered an exception while running.");
+			}
+
+			notEmpty.signalAll();
+			notFull.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+
+		abandon(unfinished.size());
+		return unfinished;
+	}
+
+	/**
+	 * Waits for all of the threads running work for this queue to exit after a
+	 * shutdown, or until the timeout elapses. Does not request a shutdown itself.
+	 *
+	 * @param timeout the maximum time to wait
+	 * @return true if all of the threads exited, false if the timeout elapsed
+	 *         first
+	 * @throws InterruptedException if interrupted while waiting
+	 * @see #shutdown()
+	 * @see #shutdownNow()
+	 */
+	public boolean awaitTermination(Duration timeout) throws InterruptedException {
+		long deadline = System.nanoTime() + timeout.toNanos();
+
+		if (perTask != null) {
+			// there are no workers to join, so wait for their work to finish instead
+			lock.lock();
+
+			try {
+				long remaining = deadline - System.nanoTime();
+
+				while (pending.get() > 0 && remaining > 0) {
+					remaining = finished.awaitNanos(remaining);
 				}
+
+				return shutdown && pending.get() == 0;
+			}
+			finally {
+				lock.unlock();
 			}
 		}
+
+		// workers are never added after a shutdown, and removed workers exit anyway
+		for (PoolWorker worker : workers) {
+			long remaining = deadline - System.nanoTime();
+
+			if (remaining <= 0) {
+				break;
+			}
+
+			// join(0) waits forever, so make sure we always wait at least 1 ms
+			worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+		}
+
+		for (PoolWorker worker : workers) {
+			if (worker.isAlive()) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns whether this queue has been asked to shutdown.
+	 *
+	 * @return true if {@link #shutdown()} or {@link #shutdownNow()} was called
+	 */
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	/**
+	 * Counts new work as pending work, unless the queue has been shutdown. Work
+	 * added by work already running in this queue is still accepted after a
+	 * shutdown (unless the queue was stopped), since it is part of the pending
+	 * work that must be finished.
+	 *
+	 * The work is counted BEFORE checking for a shutdown, so workers cannot
+	 * decide there is nothing left to do after the check but before the work is
+	 * added to the queue.
+	 *
+	 * @param amount the amount of new work
+	 * @throws RejectedExecutionException if the work must be refused
+	 */
+	private void admit(int amount) {
+		incrementPending(amount);
+
+		if (shutdown) {
+			boolean draining = currentWorker() != null || perTaskOwner.get() == this;
+
+			if (stopped || !draining) {
+				decrementPending(amount);
+				rejected.addAndGet(amount);
+				throw new RejectedExecutionException("Work queue has been shutdown.");
+			}
+		}
+	}
+
+	/**
+	 * Waits until all pending work is finished. Work may still be added to the
+	 * queue after this method returns.
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void finish() throws InterruptedException {
+		lock.lock();
+
+		try {
+			while (pending.get() > 0) {
+				finished.await();
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Safely increases the shared pending variable by the amount provided. Does
+	 * not require a lock.
+	 *
+	 * @param amount the amount of new pending work
+	 */
+	private void incrementPending(int amount) {
+		pending.addAndGet(amount);
+	}
+
+	/**
+	 * Safely decrements the shared pending variable, and wakes up any threads
+	 * waiting for work to be finished. Only locks when there is no more pending
+	 * work.
+	 */
+	private void decrementPending() {
+		decrementPending(1);
+	}
+
+	/**
+	 * Safely decreases the shared pending variable by the amount provided, and
+	 * wakes up any threads waiting for work to be finished. Only locks when there
+	 * is no more pending work.
+	 *
+	 * @param amount the amount of work that is no longer pending
+	 */
+	private void decrementPending(int amount) {
+		if (pending.addAndGet(-amount) == 0) {
+			signalFinished();
+		}
+	}
+
+	/**
+	 * Removes work that will never run from the queue depth and pending work,
+	 * and wakes up any threads waiting for work to be finished if necessary.
+	 *
+	 * @param amount the amount of work that will never run
+	 */
+	private void abandon(int amount) {
+		if (amount > 0) {
+			depth.addAndGet(-amount);
+			decrementPending(amount);
+		}
+	}
+
+	/**
+	 * Wakes up any threads waiting for work to be finished. If the queue is
+	 * shutdown, this also wakes up the workers so they may exit.
+	 */
+	private void signalFinished() {
+		lock.lock();
+
+		try {
+			finished.signalAll();
+
+			if (shutdown) {
+				notEmpty.signalAll();
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Determines whether workers should exit instead of waiting for more work.
+	 * Must be called while holding the lock so no signals are missed.
+	 *
+	 * @return true if stopped, or if shutdown and all pending work is finished
+	 */
+	private boolean done() {
+		return stopped || (shutdown && pending.get() == 0);
+	}
+
+	/**
+	 * Attempts to reserve space in the queue for up to the requested number of
+	 * work requests.
+	 *
+	 * @param count the number of work requests that need space
+	 * @return the number of work requests space was reserved for, which is 0 if
+	 *         the queue is at capacity
+	 */
+	private int reserve(int count) {
+		int current;
+		int reserved;
+
+		do {
+			current = depth.get();
+			reserved = Math.min(count, capacity - current);
+
+			if (reserved <= 0) {
+				return 0;
+			}
+		} while (!depth.compareAndSet(current, current + reserved));
+
+		// only pay for the update when we have a new peak
+		if (current + reserved > peak.get()) {
+			peak.accumulateAndGet(current + reserved, Math::max);
+		}
+
+		return reserved;
+	}
+
+	/**
+	 * Releases the space reserved for a work request once a worker takes it, and
+	 * wakes up one thread waiting for space (if there are any).
+	 */
+	private void release() {
+		depth.decrementAndGet();
+
+		if (blocked.get() > 0) {
+			lock.lock();
+
+			try {
+				notFull.signal();
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Handles a work request that did not fit in the queue using the
+	 * {@link RejectionPolicy} of this queue.
+	 *
+	 * @param r the work request that did not fit
+	 * @return true if space was eventually reserved and the work request should
+	 *         be added to the queue, false if it has already been dealt with
+	 */
+	private boolean reject(Runnable r) {
+		switch (policy) {
+			case BLOCK:
+				if (currentWorker() == null) {
+					if (awaitSpace()) {
+						return true;
+					}
+
+					// shutdown while waiting, so the work will never run anyway
+					rejected.incrementAndGet();
+					return false;
+				}
+
+				// a worker waiting on its own queue could deadlock the whole pool
+				rejected.incrementAndGet();
+				r.run();
+				return false;
+
+			case CALLER_RUNS:
+				rejected.incrementAndGet();
+				r.run();
+				return false;
+
+			case DISCARD:
+				rejected.incrementAndGet();
+				return false;
+
+			case ABORT:
+			default:
+				rejected.incrementAndGet();
+				throw new RejectedExecutionException("Work queue is at capacity: " + capacity);
+		}
+	}
+
+	/**
+	 * Waits until space can be reserved in the queue, or until the queue is
+	 * shutdown.
+	 *
+	 * @return true if space was reserved, false if shutdown was called
+	 * @throws RejectedExecutionException if interrupted while waiting
+	 */
+	private boolean awaitSpace() {
+		lock.lock();
+
+		// announce we are waiting BEFORE looking one last time (see release)
+		blocked.incrementAndGet();
+
+		try {
+			while (!shutdown) {
+				if (reserve(1) > 0) {
+					return true;
+				}
+
+				notFull.await();
+			}
+
+			return false;
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException("Interrupted while waiting for space.", ex);
+		}
+		finally {
+			blocked.decrementAndGet();
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Runs a work request and marks it as finished. Runtime exceptions are caught
+	 * so they do not kill the thread running the work.
+	 *
+	 * @param r the work request to run
+	 * @return true if the work request finished without throwing an exception
+	 */
+	private boolean runTask(Runnable r) {
+		try {
+			r.run();
+			return true;
+		}
+		catch (RuntimeException ex) {
+			// catch runtime exceptions to avoid leaking threads
+			System.err.println("Warning: Work queue encountered an exception while running.");
+			return false;
+		}
+		finally {
+			decrementPending();
+		}
+	}
+
+	/**
+	 * Adds work done by a thread that is not (or is no longer) a worker to the
+	 * totals of this queue.
+	 *
+	 * @param executed number of work requests run
+	 * @param failed number of work requests that threw an exception
+	 * @param waiting nanoseconds spent waiting for work
+	 * @param running nanoseconds spent running work
+	 */
+	private void retire(long executed, long failed, long waiting, long running) {
+		retiredExecuted.add(executed);
+		retiredFailed.add(failed);
+		retiredWaiting.add(waiting);
+		retiredRunning.add(running);
+	}
+
+	/**
+	 * Returns the number of worker threads being used by the work queue. Work
+	 * queues that create a new thread per work request do not have any worker
+	 * threads. For elastic work queues, this changes over time.
+	 *
+	 * @return number of worker threads
+	 * @see #maxSize()
+	 */
+	public int size() {
+		return workers.length;
+	}
+
+	/**
+	 * Returns the maximum number of worker threads the work queue may use. This
+	 * is the same as {@link #size()} unless the work queue is elastic.
+	 *
+	 * @return maximum number of worker threads
+	 */
+	public int maxSize() {
+		return max;
+	}
+
+	/**
+	 * Returns the maximum number of work requests that may be waiting at once.
+	 *
+	 * @return capacity of the work queue
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of work requests currently waiting to be run.
+	 *
+	 * @return current queue depth
+	 */
+	public int depth() {
+		return depth.get();
+	}
+
+	/**
+	 * Returns the largest number of work requests that were ever waiting to be
+	 * run at once. Useful for tuning the capacity of the queue.
+	 *
+	 * @return largest queue depth seen thus far
+	 */
+	public int peakDepth() {
+		return peak.get();
+	}
+
+	/**
+	 * Returns the number of work requests that did not fit in the queue and were
+	 * run by the caller, dropped, or refused instead.
+	 *
+	 * @return number of rejected work requests
+	 */
+	public long rejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * Returns how long work of the provided priority waited in a priority work
+	 * queue before being started.
+	 *
+	 * @param priority the priority of work
+	 * @return latency histogram for work of that priority, or {@code null} if
+	 *         this is not a priority work queue
+	 * @see #newPriorityQueue(int)
+	 */
+	public LatencyHistogram latency(Priority priority) {
+		return latency == null ? null : latency[priority.ordinal()];
+	}
+
+	/**
+	 * Returns the number of work requests in a priority work queue that were
+	 * started after their deadline.
+	 *
+	 * @return number of late work requests
+	 */
+	public long late() {
+		return late.sum();
+	}
+
+	/**
+	 * Returns a snapshot of how much work each worker (and the queue as a whole)
+	 * has done thus far. Does not lock or otherwise slow down the workers, so the
+	 * values may be slightly out of date by the time they are returned.
+	 *
+	 * @return snapshot of the work done by this queue
+	 */
+	public Metrics metrics() {
+		PoolWorker[] current = workers;
+		List<WorkerMetrics> snapshots = new ArrayList<>(current.length);
+
+		long executed = retiredExecuted.sum();
+		long failed = retiredFailed.sum();
+		long waiting = retiredWaiting.sum();
+		long running = retiredRunning.sum();
+
+		for (PoolWorker worker : current) {
+			WorkerMetrics snapshot = worker.metrics();
+			snapshots.add(snapshot);
+
+			executed += snapshot.executed;
+			failed += snapshot.failed;
+			waiting += snapshot.waiting.toNanos();
+			running += snapshot.running.toNanos();
+		}
+
+		WorkerMetrics total = new WorkerMetrics("total", executed, failed, waiting, running);
+		return new Metrics(snapshots, total, depth.get(), peak.get(), rejected.get(), pending.get());
+	}
+
+	/**
+	 * An immutable snapshot of the work done by a single worker, or by all of the
+	 * workers of a queue combined.
+	 */
+	public static class WorkerMetrics {
+		/** The name of the worker (or "total" for all the workers combined). */
+		public final String name;
+
+		/** The number of work requests run. */
+		public final long executed;
+
+		/** The number of work requests that threw an exception. */
+		public final long failed;
+
+		/** The time spent finding or waiting for work. */
+		public final Duration waiting;
+
+		/** The time spent running work. */
+		public final Duration running;
+
+		/**
+		 * Initializes this snapshot.
+		 *
+		 * @param name the name of the worker
+		 * @param executed the number of work requests run
+		 * @param failed the number of work requests that threw an exception
+		 * @param waiting nanoseconds spent finding or waiting for work
+		 * @param running nanoseconds spent running work
+		 */
+		public WorkerMetrics(String name, long executed, long failed, long waiting, long running) {
+			this.name = name;
+			this.executed = executed;
+			this.failed = failed;
+			this.waiting = Duration.ofNanos(waiting);
+			this.running = Duration.ofNanos(running);
+		}
+
+		/**
+		 * Returns the fraction of time spent running work instead of waiting for
+		 * it. Workers with a low utilization suggest the pool is too large.
+		 *
+		 * @return fraction of time spent running work (between 0 and 1)
+		 */
+		public double utilization() {
+			long total = waiting.toNanos() + running.toNanos();
+			return total == 0 ? 0 : (double) running.toNanos() / total;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d executed, %d failed, %d ms waiting, %d ms running (%.0f%% utilized)",
+					name, executed, failed, waiting.toMillis(), running.toMillis(), utilization() * 100);
+		}
+	}
+
+	/**
+	 * An immutable snapshot of the work done by a queue and its workers.
+	 */
+	public static class Metrics {
+		/** The work done by each worker. */
+		public final List<WorkerMetrics> workers;
+
+		/** The work done by all of the workers combined. */
+		public final WorkerMetrics total;
+
+		/** The number of work requests waiting to be run. */
+		public final int depth;
+
+		/** The largest number of work requests ever waiting to be run at once. */
+		public final int peakDepth;
+
+		/** The number of work requests that were not added to the queue. */
+		public final long rejected;
+
+		/** The number of work requests waiting to be run or running. */
+		public final int pending;
+
+		/**
+		 * Initializes this snapshot.
+		 *
+		 * @param workers the work done by each worker
+		 * @param total the work done by all of the workers combined
+		 * @param depth the number of work requests waiting to be run
+		 * @param peakDepth the largest number of work requests ever waiting
+		 * @param rejected the number of work requests not added to the queue
+		 * @param pending the number of work requests waiting or running
+		 */
+		public Metrics(List<WorkerMetrics> workers, WorkerMetrics total, int depth,
+				int peakDepth, long rejected, int pending) {
+			this.workers = Collections.unmodifiableList(workers);
+			this.total = total;
+			this.depth = depth;
+			this.peakDepth = peakDepth;
+			this.rejected = rejected;
+			this.pending = pending;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+
+			builder.append(String.format("depth: %d (peak %d), pending: %d, rejected: %d%n",
+					depth, peakDepth, pending, rejected));
+
+			for (WorkerMetrics worker : workers) {
+				builder.append(worker).append(System.lineSeparator());
+			}
+
+			builder.append(total);
+			return builder.toString();
+		}
+	}
+
+	/**
+	 * Creates a work queue that runs each work request in its own virtual thread.
+	 * Virtual threads are cheap to create and block, which makes them a good fit
+	 * for I/O bound work like listing directories. Virtual threads were added in
+	 * Java 21; on older versions of Java this falls back to platform threads.
+	 *
+	 * @return work queue that creates a thread per work request
+	 * @see #virtualThreadFactory()
+	 */
+	public static WorkQueue newVirtualThreadQueue() {
+		return new WorkQueue(virtualThreadFactory());
+	}
+
+	/**
+	 * Creates a work queue that runs work in order of deadline instead of the
+	 * order it was added. Each work request is given a {@link Priority}, and
+	 * unless an explicit deadline is given, it is due a fixed amount of time
+	 * after being added based on that priority. Work with the same deadline runs
+	 * in the order it was added.
+	 *
+	 * Since every worker must see the most urgent work, priority work queues do
+	 * not use work stealing. Instead, all work goes into a single shared heap.
+	 *
+	 * @param threads number of worker threads; should be greater than 1
+	 * @return work queue that schedules work by priority and deadline
+	 * @see #execute(Runnable, Priority)
+	 * @see #execute(Runnable, Priority, Duration)
+	 * @see #latency(Priority)
+	 */
+	public static WorkQueue newPriorityQueue(int threads) {
+		return new WorkQueue(threads, threads, 0, false, Integer.MAX_VALUE, RejectionPolicy.BLOCK,
+				null, true);
+	}
+
+	/**
+	 * Returns a factory that creates virtual threads if supported by this version
+	 * of Java, or platform threads otherwise. Uses reflection so this class still
+	 * compiles with older versions of Java.
+	 *
+	 * @return thread factory for virtual threads (if supported)
+	 */
+	public static ThreadFactory virtualThreadFactory() {
+		try {
+			// same as Thread.ofVirtual().factory() in Java 21 and newer
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		}
+		catch (ReflectiveOperationException | RuntimeException ex) {
+			return Thread::new;
+		}
+	}
+
+	/**
+	 * Returns the worker of this work queue running in the current thread, if
+	 * any.
+	 *
+	 * @return the current worker or {@code null} if not called by a worker of
+	 *         this work queue
+	 */
+	private PoolWorker currentWorker() {
+		Thread current = Thread.currentThread();
+
+		if (current instanceof PoolWorker) {
+			PoolWorker worker = (PoolWorker) current;
+			return worker.owner() == this ? worker : null;
+		}
+
+		return null;
+	}
+
+	/**
+	 * A work request in a priority work queue. Tracks when the work was added
+	 * so the latency until it starts can be recorded.
+	 */
+	private class Scheduled implements Runnable, Comparable<Scheduled> {
+
+		/** The work to run. */
+		private final Runnable task;
+
+		/** How urgent the work is. */
+		private final Priority priority;
+
+		/** When the work was added (from {@link System#nanoTime()}). */
+		private final long added;
+
+		/** When the work should be started by (from {@link System#nanoTime()}). */
+		private final long deadline;
+
+		/** Breaks ties between work with the same deadline. */
+		private final long order;
+
+		/**
+		 * Initializes this work request.
+		 *
+		 * @param task the work to run
+		 * @param priority how urgent the work is
+		 * @param slack nanoseconds from now the work should be started by
+		 */
+		public Scheduled(Runnable task, Priority priority, long slack) {
+			this.task = task;
+			this.priority = priority;
+			this.added = System.nanoTime();
+			this.deadline = added + slack;
+			this.order = sequence.getAndIncrement();
+		}
+
+		@Override
+		public void run() {
+			long started = System.nanoTime();
+			latency[priority.ordinal()].record(started - added);
+
+			if (started - deadline > 0) {
+				late.increment();
+			}
+
+			task.run();
+		}
+
+		@Override
+		public int compareTo(Scheduled other) {
+			// compare the difference since nanoTime() values may overflow
+			long difference = deadline - other.deadline;
+
+			if (difference != 0) {
+				return difference < 0 ? -1 : 1;
+			}
+
+			return Long.compare(order, other.order);
+		}
+	}
+
+	/**
+	 * Waits until work is available in the work queue. When work is found, will
+	 * remove the work from the queue and run it. If a shutdown is detected, will
+	 * exit once all of the pending work is finished (or immediately if the queue
+	 * was stopped). These threads will continue running in the background until
+	 * a shutdown is requested, or until idle for too long in an elastic queue.
+	 */
+	private class PoolWorker extends Thread {
+
+		/** Work submitted by this worker (only used when stealing). */
+		private final ConcurrentLinkedDeque<Runnable> local;
+
+		/*
+		 * These are only ever written by this worker, so volatile is enough to let
+		 * other threads read them safely (no locks or atomic updates necessary).
+		 */
+
+		/** The number of work requests run by this worker. */
+		private volatile long executed;
+
+		/** The number of work requests that threw an exception. */
+		private volatile long failed;
+
+		/** Nanoseconds spent finding or waiting for work. */
+		private volatile long waiting;
+
+		/** Nanoseconds spent running work. */
+		private volatile long running;
+
+		/** Whether this worker removed itself from the pool after being idle. */
+		private boolean removed;
+
+		/**
+		 * Initializes this worker.
+		 */
+		public PoolWorker() {
+			this.local = new ConcurrentLinkedDeque<>();
+		}
+
+		@Override
+		public void run() {
+			Runnable r = null;
+			long mark = System.nanoTime();
+
+			while (true) {
+				r = stealing ? nextStolen() : nextShared();
+
+				long now = System.nanoTime();
+				waiting += now - mark;
+				mark = now;
+
+				// null means shutdown has been called or this worker was removed
+				if (r == null) {
+					break;
+				}
+
+				release();
+				boolean success = runTask(r);
+
+				now = System.nanoTime();
+				running += now - mark;
+				mark = now;
+
+				executed++;
+
+				if (!success) {
+					failed++;
+				}
+			}
+
+			// anything added to our deque as shutdownNow() was called will never run
+			int abandoned = 0;
+
+			while (local.pollFirst() != null) {
+				abandoned++;
+			}
+
+			abandon(abandoned);
+
+			// no longer part of the pool, so keep our work in the totals instead
+			if (removed) {
+				retire(executed, failed, waiting, running);
+			}
+		}
+
+		/**
+		 * Returns a snapshot of the work done by this worker thus far.
+		 *
+		 * @return snapshot of the work done by this worker
+		 */
+		private WorkerMetrics metrics() {
+			return new WorkerMetrics(getName(), executed, failed, waiting, running);
+		}
+
+		/**
+		 * Returns the work queue this worker belongs to.
+		 *
+		 * @return the owning work queue
+		 */
+		private WorkQueue owner() {
+			return WorkQueue.this;
+		}
+
+		/**
+		 * Waits for and removes the next work request from the shared queue.
+		 *
+		 * @return the next work request, or {@code null} if the worker should exit
+		 */
+		private Runnable nextShared() {
+			lock.lock();
+			idle.incrementAndGet();
+
+			try {
+				boolean expired = false;
+
+				while (queue.isEmpty() && !done()) {
+					if (expired && remove()) {
+						return null;
+					}
+
+					try {
+						expired = awaitWork();
+					}
+					catch (InterruptedException ex) {
+						System.err.println("Warning: Work queue interrupted while waiting.");
+						Thread.currentThread().interrupt();
+					}
+				}
+
+				// exit while for one of two reasons:
+				// (a) queue has work, or (b) we are done and should exit
+
+				return stopped || queue.isEmpty() ? null : queue.remove();
+			}
+			finally {
+				idle.decrementAndGet();
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Finds the next work request by first checking this worker's own deque,
+		 * then the shared queue, and then the deques of the other workers. Only
+		 * waits if no work could be found anywhere.
+		 *
+		 * @return the next work request, or {@code null} if the worker should exit
+		 */
+		private Runnable nextStolen() {
+			if (stopped) {
+				return null;
+			}
+
+			// newest work first from our own deque (better locality)
+			Runnable r = local.pollFirst();
+
+			if (r != null) {
+				return r;
+			}
+
+			lock.lock();
+
+			// announce we are idle BEFORE looking one last time, so anyone adding
+			// work after our last look knows to wake us up
+			idle.incrementAndGet();
+
+			try {
+				boolean expired = false;
+
+				while (!done()) {
+					r = queue.poll();
+
+					if (r == null) {
+						r = steal();
+					}
+
+					if (r != null) {
+						return r;
+					}
+
+					if (expired && remove()) {
+						return null;
+					}
+
+					try {
+						expired = awaitWork();
+					}
+					catch (InterruptedException ex) {
+						System.err.println("Warning: Work queue interrupted while waiting.");
+						Thread.currentThread().interrupt();
+					}
+				}
+
+				return null;
+			}
+			finally {
+				idle.decrementAndGet();
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Waits for a signal that there is more work. Workers of elastic queues
+		 * only wait up to the keep-alive time. Must be called while holding the
+		 * lock.
+		 *
+		 * @return true if the keep-alive time elapsed without a signal
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		private boolean awaitWork() throws InterruptedException {
+			if (keepAlive <= 0) {
+				notEmpty.await();
+				return false;
+			}
+
+			return notEmpty.awaitNanos(keepAlive) <= 0;
+		}
+
+		/**
+		 * Removes this worker from the pool if there are more workers than the
+		 * minimum. Must be called while holding the lock, after making sure there
+		 * is no work to take (our own deque is already empty, and nobody else adds
+		 * work to it).
+		 *
+		 * @return true if this worker was removed and should exit
+		 */
+		private boolean remove() {
+			PoolWorker[] current = workers;
+
+			if (current.length <= min || shutdown) {
+				return false;
+			}
+
+			PoolWorker[] smaller = new PoolWorker[current.length - 1];
+			int i = 0;
+
+			for (PoolWorker worker : current) {
+				if (worker != this) {
+					smaller[i++] = worker;
+				}
+			}
+
+			workers = smaller;
+			removed = true;
+			return true;
+		}
+
+		/**
+		 * Attempts to steal the oldest work request from another worker, starting
+		 * at a random worker to spread out the stealing.
+		 *
+		 * @return the stolen work request, or {@code null} if none was found
+		 */
+		private Runnable steal() {
+			PoolWorker[] current = workers;
+			int start = ThreadLocalRandom.current().nextInt(current.length);
+
+			for (int i = 0; i < current.length; i++) {
+				PoolWorker victim = current[(start + i) % current.length];
+
+				if (victim != this) {
+					// oldest work from others (usually the largest chunk of work)
+					Runnable r = victim.local.pollLast();
+
+					if (r != null) {
+						return r;
+					}
+				}
+			}
+
+			return null;
+		}
 	}
 }
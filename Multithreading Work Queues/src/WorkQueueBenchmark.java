@@ -0,0 +1,286 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the throughput and number of context switches of the shared queue
+ * and work-stealing versions of {@link WorkQueue} at different numbers of
+ * worker threads. As a baseline, it also runs a shared queue that uses
+ * {@link Object#notifyAll()} to wake up workers (like the original work queue
+ * did) instead of signaling conditions. Each run creates a binary tree of tiny tasks, where every task
+ * adds two more tasks to the queue until a fixed depth (much like the directory
+ * listing tasks do). Note: Benchmarking is difficult in Java. For more
+ * sophisticated benchmarking, look into benchmarking extensions or third-party
+ * libraries.
+ *
+ * Context switches are read from {@code /proc/self/task}, so they are only
+ * available on Linux. Elsewhere they will show up as 0.
+ *
+ * @see WorkQueue
+ */
+public class WorkQueueBenchmark {
+
+	/** Depth of the tree of tasks (there are 2^DEPTH - 1 tasks per run). */
+	public static final int DEPTH = 18;
+
+	/** Number of untimed warmup runs. */
+	public static final int WARMUP = 3;
+
+	/** Number of timed runs. */
+	public static final int RUNS = 5;
+
+	/**
+	 * The operations each version of the work queue needs for this benchmark.
+	 */
+	private interface Pool extends Executor {
+		/**
+		 * Waits until all pending work is finished.
+		 *
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		void finish() throws InterruptedException;
+
+		/**
+		 * Asks the worker threads to terminate.
+		 */
+		void shutdown();
+	}
+
+	/**
+	 * Wraps a {@link WorkQueue} as a {@link Pool}.
+	 *
+	 * @param queue the work queue to wrap
+	 * @return the wrapped work queue
+	 */
+	private static Pool pool(WorkQueue queue) {
+		return new Pool() {
+			@Override
+			public void execute(Runnable r) {
+				queue.execute(r);
+			}
+
+			@Override
+			public void finish() throws InterruptedException {
+				queue.finish();
+			}
+
+			@Override
+			public void shutdown() {
+				queue.shutdown();
+			}
+		};
+	}
+
+	/**
+	 * A minimal shared queue that wakes up every waiting thread with
+	 * {@link Object#notifyAll()} whenever work is added or finished, like the
+	 * work queue did before it switched to conditions. Only used as a baseline.
+	 */
+	private static class NotifyAllPool implements Pool {
+		/** Queue of pending work requests. */
+		private final LinkedList<Runnable> queue;
+
+		/** The amount of pending (or unfinished) work. */
+		private final AtomicInteger pending;
+
+		/** Used to signal the workers should terminate. */
+		private volatile boolean shutdown;
+
+		/**
+		 * Starts a pool with the specified number of worker threads.
+		 *
+		 * @param threads the number of worker threads
+		 */
+		public NotifyAllPool(int threads) {
+			this.queue = new LinkedList<>();
+			this.pending = new AtomicInteger();
+			this.shutdown = false;
+
+			for (int i = 0; i < threads; i++) {
+				Thread worker = new Thread(this::work);
+				worker.start();
+			}
+		}
+
+		@Override
+		public void execute(Runnable r) {
+			pending.incrementAndGet();
+
+			synchronized (queue) {
+				queue.addLast(r);
+				queue.notifyAll();
+			}
+		}
+
+		@Override
+		public void finish() throws InterruptedException {
+			synchronized (pending) {
+				while (pending.get() > 0 && !shutdown) {
+					pending.wait();
+				}
+			}
+		}
+
+		@Override
+		public void shutdown() {
+			shutdown = true;
+
+			synchronized (queue) {
+				queue.notifyAll();
+			}
+
+			synchronized (pending) {
+				pending.notifyAll();
+			}
+		}
+
+		/**
+		 * Waits for, removes, and runs work from the queue until shutdown.
+		 */
+		private void work() {
+			while (true) {
+				Runnable r;
+
+				synchronized (queue) {
+					while (queue.isEmpty() && !shutdown) {
+						try {
+							queue.wait();
+						}
+						catch (InterruptedException ex) {
+							Thread.currentThread().interrupt();
+							return;
+						}
+					}
+
+					if (shutdown) {
+						return;
+					}
+
+					r = queue.removeFirst();
+				}
+
+				try {
+					r.run();
+				}
+				finally {
+					if (pending.decrementAndGet() == 0) {
+						synchronized (pending) {
+							pending.notifyAll();
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * A tiny task that adds two more tasks to the queue until reaching the
+	 * maximum depth.
+	 */
+	private static class Task implements Runnable {
+		/** The queue to add more tasks to. */
+		private final Pool queue;
+
+		/** The depth of this task. */
+		private final int depth;
+
+		/**
+		 * Initializes this task.
+		 *
+		 * @param queue the queue to add more tasks to
+		 * @param depth the depth of this task
+		 */
+		public Task(Pool queue, int depth) {
+			this.queue = queue;
+			this.depth = depth;
+		}
+
+		@Override
+		public void run() {
+			if (depth < DEPTH) {
+				queue.execute(new Task(queue, depth + 1));
+				queue.execute(new Task(queue, depth + 1));
+			}
+		}
+	}
+
+	/**
+	 * Benchmarks one version of the work queue with the specified number of
+	 * threads and outputs the average throughput and context switches per run.
+	 *
+	 * @param name the name of this version of the work queue
+	 * @param queue the work queue to benchmark (shutdown afterwards)
+	 * @param threads the number of worker threads
+	 * @throws InterruptedException if interrupted while waiting for work
+	 */
+	private static void benchmark(String name, Pool queue, int threads) throws InterruptedException {
+		for (int i = 0; i < WARMUP; i++) {
+			queue.execute(new Task(queue, 1));
+			queue.finish();
+		}
+
+		// the workers are alive the entire time, so none of their switches are lost
+		long switches = contextSwitches();
+		Instant start = Instant.now();
+
+		for (int i = 0; i < RUNS; i++) {
+			queue.execute(new Task(queue, 1));
+			queue.finish();
+		}
+
+		Duration elapsed = Duration.between(start, Instant.now());
+		switches = contextSwitches() - switches;
+		queue.shutdown();
+
+		double tasks = (1 << DEPTH) - 1;
+		double throughput = tasks * RUNS / elapsed.toMillis();
+
+		System.out.printf("%9s %2d threads: %10.2f tasks/ms %10d context switches%n",
+				name, threads, throughput, switches / RUNS);
+	}
+
+	/**
+	 * Returns the number of voluntary and involuntary context switches of all
+	 * the threads currently running in this process.
+	 *
+	 * @return number of context switches, or 0 if not available
+	 */
+	private static long contextSwitches() {
+		long total = 0;
+
+		try (DirectoryStream<Path> tasks = Files.newDirectoryStream(Path.of("/proc/self/task"))) {
+			for (Path task : tasks) {
+				for (String line : Files.readAllLines(task.resolve("status"))) {
+					if (line.contains("ctxt_switches")) {
+						total += Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+					}
+				}
+			}
+		}
+		catch (IOException | NumberFormatException ex) {
+			return 0;
+		}
+
+		return total;
+	}
+
+	/**
+	 * Runs the benchmark for 2, 8, and 32 threads.
+	 *
+	 * @param args unused
+	 * @throws InterruptedException if interrupted while waiting for work
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		for (int threads : new int[] { 2, 8, 32 }) {
+			benchmark("notifyAll", new NotifyAllPool(threads), threads);
+			benchmark("shared", pool(new WorkQueue(threads, false)), threads);
+			benchmark("stealing", pool(new WorkQueue(threads, true)), threads);
+		}
+	}
+}
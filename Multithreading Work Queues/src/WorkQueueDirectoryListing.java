@@ -2,8 +2,11 @@ import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -14,8 +17,11 @@ import org.apache.logging.log4j.Logger;
  * {@link MultithreadedDirectoryListing} for making a multithreaded version of
  * {@link SerialDirectoryListing}.
  *
- * Note: With a tweak to our work queues (moving the pending variable there),
- * we can avoid needing the TaskMaster class entirely!
+ * Note: Since our work queue now keeps track of pending work, the task master
+ * no longer needs its own pending variable (or any synchronized methods). Tasks
+ * also no longer lock the shared set of paths to add their results. Instead,
+ * each task adds its own list of paths to a lock-free queue, and the lists are
+ * merged into the set once all of the tasks are finished.
  */
 public class WorkQueueDirectoryListing {
 
@@ -29,13 +35,42 @@ public class WorkQueueDirectoryListing {
 	 * @return paths found within directory and its subdirectories
 	 */
 	public static Set<Path> list(Path path) {
+		return list(path, ListingFilter.ALL);
+	}
+
+	/**
+	 * Returns a filtered directory listing for the given path. Excluded paths are
+	 * skipped before tasks are created for them, so excluded directories and
+	 * directories past the maximum depth never reach the work queue.
+	 *
+	 * @param path directory to create listing
+	 * @param filter which paths to include, exclude, and how deep to go
+	 * @return paths found within directory and its subdirectories
+	 */
+	public static Set<Path> list(Path path, ListingFilter filter) {
+		return list(path, filter, WorkQueue.DEFAULT);
+	}
+
+	/**
+	 * Returns a filtered directory listing for the given path, using the given
+	 * number of worker threads.
+	 *
+	 * @param path directory to create listing
+	 * @param filter which paths to include, exclude, and how deep to go
+	 * @param threads number of worker threads to use
+	 * @return paths found within directory and its subdirectories
+	 * @see #list(Path, ListingFilter)
+	 */
+	public static Set<Path> list(Path path, ListingFilter filter, int threads) {
 		HashSet<Path> paths = new HashSet<>();
 
 		if (Files.exists(path)) {
-			paths.add(path);
+			if (filter.includes(path)) {
+				paths.add(path);
+			}
 
-			if (Files.isDirectory(path)) {
-				TaskMaster master = new TaskMaster(paths);
+			if (filter.descends(0) && Files.isDirectory(path)) {
+				TaskMaster master = new TaskMaster(paths, filter, threads);
 				master.start(path);
 
 				try {
@@ -54,14 +89,17 @@ public class WorkQueueDirectoryListing {
 
 	/**
 	 * Instead of a static worker class, we will create a task master that can
-	 * keep track of pending work.
+	 * share the paths and work queue with its tasks.
 	 */
 	private static class TaskMaster {
-		/** The shared set of all paths found thus far. */
+		/** The set of all paths found, only updated once all tasks finish. */
 		private final Set<Path> paths;
 
-		/** The amount of pending (or unfinished) work. */
-		private int pending;
+		/** The paths found by each task, merged into the set of paths in join(). */
+		private final ConcurrentLinkedQueue<List<Path>> results;
+
+		/** Which paths to include, exclude, and how deep to go. */
+		private final ListingFilter filter;
 
 		/** The work queue that will handle all of the tasks. */
 		private final WorkQueue tasks;
@@ -70,11 +108,14 @@ public class WorkQueueDirectoryListing {
 		 * Initializes a task master given a set of paths.
 		 *
 		 * @param paths the set of shared paths to populate
+		 * @param filter which paths to include, exclude, and how deep to go
+		 * @param threads number of worker threads to use
 		 */
-		private TaskMaster(Set<Path> paths) {
+		private TaskMaster(Set<Path> paths, ListingFilter filter, int threads) {
 			this.paths = paths;
-			this.pending = 0;
-			this.tasks = new WorkQueue();
+			this.results = new ConcurrentLinkedQueue<>();
+			this.filter = filter;
+			this.tasks = new WorkQueue(threads);
 		}
 
 		/**
@@ -83,51 +124,65 @@ public class WorkQueueDirectoryListing {
 		 * @param path directory to create listing
 		 */
 		private void start(Path path) {
-			tasks.execute(new Task(path));
+			tasks.execute(new Task(path, 0));
 		}
 
 		/**
-		 * The non-static task class that will update the shared paths and
-		 * pending members in our task master instance.
+		 * The non-static task class that will add its results to our task master
+		 * instance.
 		 */
 		private class Task implements Runnable {
 			/** The path to add or list. */
 			private final Path path;
 
+			/** The depth of the path. */
+			private final int depth;
+
 			/**
 			 * Initializes this task.
 			 *
 			 * @param path the path to add or list
+			 * @param depth the depth of the path
 			 */
-			public Task(Path path) {
+			public Task(Path path, int depth) {
 				this.path = path;
-				incrementPending();
+				this.depth = depth;
 				log.debug("Task for {} created.", path);
 			}
 
 			@Override
 			public void run() {
-				Set<Path> local = new HashSet<>();
+				// every path in a directory is unique, so no need for a set here
+				List<Path> local = new ArrayList<>();
+				List<Task> subtasks = new ArrayList<>();
 
 				try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
 					for (Path current : stream) {
-						local.add(current);
+						// pruned before checking the type or creating a task
+						if (filter.excludes(current)) {
+							continue;
+						}
 
-						if (Files.isDirectory(current)) {
-							tasks.execute(new Task(current));
+						if (filter.includes(current)) {
+							local.add(current);
 						}
-					}
 
-					synchronized (paths) {
-						paths.addAll(local);
+						if (filter.descends(depth + 1) && Files.isDirectory(current)) {
+							subtasks.add(new Task(current, depth + 1));
+						}
 					}
+
+					// hand off all of the subdirectories at once
+					tasks.executeAll(subtasks);
+
+					// lock-free, so tasks never wait on each other to add results
+					results.add(local);
 				}
 				catch (IOException ex) {
 					log.catching(Level.DEBUG, ex);
 				}
 
 				log.debug("Task for {} finished.", path);
-				decrementPending();
 			}
 		}
 
@@ -137,48 +192,36 @@ public class WorkQueueDirectoryListing {
 		 *
 		 * @throws InterruptedException
 		 */
-		private synchronized void join() throws InterruptedException {
+		private void join() throws InterruptedException {
 			log.debug("Waiting for work...");
-
-			while (pending > 0) {
-				this.wait();
-				log.debug("Woke up with pending at {}.", pending);
-			}
-
+			tasks.finish();
 			log.debug("Work finished.");
-		}
-
-		/**
-		 * Safely increments the shared pending variable.
-		 */
-		private synchronized void incrementPending() {
-			pending++;
-		}
 
-		/**
-		 * Safely decrements the shared pending variable, and wakes up any threads
-		 * waiting for work to be completed.
-		 */
-		private synchronized void decrementPending() {
-			assert pending > 0;
-			pending--;
-
-			if (pending == 0) {
-				this.notifyAll();
+			// only this thread is using the set at this point, so no locking needed
+			for (List<Path> result : results) {
+				paths.addAll(result);
 			}
 		}
 	}
 
 	/**
-	 * Tests the directory listing for the current directory.
+	 * Tests the directory listing for a generated directory tree.
 	 *
 	 * @param args unused
+	 * @throws IOException if unable to generate or delete the tree
+	 * @see TreeGenerator
 	 */
-	public static void main(String[] args) {
-		Path path = Path.of(".");
-		Set<Path> actual = list(path);
-		Set<Path> expected = SerialDirectoryListing.list(path);
+	public static void main(String[] args) throws IOException {
+		Path path = Files.createTempDirectory("listing");
+
+		try {
+			Set<Path> expected = TreeGenerator.CI.generate(path);
+			Set<Path> actual = list(path);
 
-		System.out.println(actual.equals(expected));
+			System.out.println(actual.equals(expected));
+		}
+		finally {
+			TreeGenerator.delete(path);
+		}
 	}
 }